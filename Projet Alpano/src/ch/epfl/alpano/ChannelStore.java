@@ -0,0 +1,342 @@
+package ch.epfl.alpano;
+
+import java.nio.FloatBuffer;
+
+/**
+ * Stores the samples of one channel of a panorama, either as floats or in a
+ * compact (quantised) form. The samples are accessed by their linear index.
+ *
+ * @author Natal Willisch (262092)
+ *
+ */
+abstract class ChannelStore {
+
+    /**
+     * Returns the sample at a given index.
+     *
+     * @param index
+     *            linear sample index
+     * @return the sample
+     */
+    abstract float get(int index);
+
+    /**
+     * Sets the sample at a given index.
+     *
+     * @param index
+     *            linear sample index
+     * @param value
+     *            the sample
+     * @throws UnsupportedOperationException
+     *             if the store is read only
+     */
+    abstract void set(int index, float value);
+
+    /**
+     * Returns the number of samples.
+     *
+     * @return number of samples
+     */
+    abstract int size();
+
+    /**
+     * Returns the number of bytes occupied by the samples.
+     *
+     * @return number of bytes
+     */
+    abstract long byteSize();
+
+    /**
+     * Returns the number of bytes occupied by the samples on the heap (the
+     * samples of a mapped file are not on the heap).
+     *
+     * @return number of bytes
+     */
+    long heapSize() {
+
+        return byteSize();
+
+    }
+
+    /**
+     * Copies consecutive samples in a table.
+     *
+     * @param from
+     *            index of the first sample
+     * @param dst
+     *            the destination table
+     * @param offset
+     *            index of the first sample in the table
+     * @param length
+     *            number of samples
+     */
+    void get(int from, float[] dst, int offset, int length) {
+
+        for (int i = 0; i < length; i++)
+            dst[offset + i] = get(from + i);
+
+    }
+
+    /**
+     * Stores the samples as floats in a buffer (on the heap or mapped).
+     */
+    static final class Floats extends ChannelStore {
+
+        private final FloatBuffer buffer;
+
+        Floats(FloatBuffer buffer) {
+
+            this.buffer = buffer;
+
+        }
+
+        @Override
+        float get(int index) {
+
+            return buffer.get(index);
+
+        }
+
+        @Override
+        void set(int index, float value) {
+
+            buffer.put(index, value);
+
+        }
+
+        @Override
+        int size() {
+
+            return buffer.capacity();
+
+        }
+
+        @Override
+        long byteSize() {
+
+            return (long) buffer.capacity() * Float.BYTES;
+
+        }
+
+        @Override
+        long heapSize() {
+
+            return buffer.isDirect() ? 0 : byteSize();
+
+        }
+
+        @Override
+        void get(int from, float[] dst, int offset, int length) {
+
+            FloatBuffer b = buffer.duplicate();
+
+            b.position(from);
+            b.get(dst, offset, length);
+
+        }
+
+    }
+
+    /**
+     * Stores distances on 16 bits on a logarithmic scale (the relative error
+     * is smaller than 0.025%, distances bigger than the earth radius are
+     * saturated). The code 0 stands for an infinite distance.
+     */
+    static final class LogDistances extends ChannelStore {
+
+        private static final int MAX_CODE = 0xFFFF;
+        private static final double STEP = Math.log1p(Distance.EARTH_RADIUS)
+                / (MAX_CODE - 1);
+
+        private final char[] codes;
+
+        LogDistances(int size) {
+
+            codes = new char[size];
+
+        }
+
+        @Override
+        float get(int index) {
+
+            int code = codes[index];
+
+            return code == 0 ? Float.POSITIVE_INFINITY
+                    : (float) Math.expm1((code - 1) * STEP);
+
+        }
+
+        @Override
+        void set(int index, float value) {
+
+            if (value == Float.POSITIVE_INFINITY)
+                codes[index] = 0;
+            else
+                codes[index] = (char) (1 + Math.min(MAX_CODE - 1,
+                        Math.round(Math.log1p(Math.max(0, value)) / STEP)));
+
+        }
+
+        @Override
+        int size() {
+
+            return codes.length;
+
+        }
+
+        @Override
+        long byteSize() {
+
+            return (long) codes.length * Character.BYTES;
+
+        }
+
+    }
+
+    /**
+     * Stores angles as 32 bits fixed point numbers relative to a reference
+     * angle (precision of about 3e-9 radians, ~2cm on the earth).
+     */
+    static final class FixedPointAngles extends ChannelStore {
+
+        private static final double UNIT = Math2.PI2 / (1L << 31);
+
+        private final int[] offsets;
+        private final double reference;
+
+        FixedPointAngles(int size, double reference) {
+
+            offsets = new int[size];
+            this.reference = reference;
+
+        }
+
+        @Override
+        float get(int index) {
+
+            return (float) (reference + offsets[index] * UNIT);
+
+        }
+
+        @Override
+        void set(int index, float value) {
+
+            offsets[index] = (int) Math.max(Integer.MIN_VALUE, Math.min(
+                    Integer.MAX_VALUE, Math.round((value - reference) / UNIT)));
+
+        }
+
+        @Override
+        int size() {
+
+            return offsets.length;
+
+        }
+
+        @Override
+        long byteSize() {
+
+            return (long) offsets.length * Integer.BYTES;
+
+        }
+
+    }
+
+    /**
+     * Stores elevations rounded to the meter on 16 bits.
+     */
+    static final class Elevations extends ChannelStore {
+
+        private final short[] meters;
+
+        Elevations(int size) {
+
+            meters = new short[size];
+
+        }
+
+        @Override
+        float get(int index) {
+
+            return meters[index];
+
+        }
+
+        @Override
+        void set(int index, float value) {
+
+            meters[index] = (short) Math.max(Short.MIN_VALUE,
+                    Math.min(Short.MAX_VALUE, Math.round(value)));
+
+        }
+
+        @Override
+        int size() {
+
+            return meters.length;
+
+        }
+
+        @Override
+        long byteSize() {
+
+            return (long) meters.length * Short.BYTES;
+
+        }
+
+    }
+
+    /**
+     * Stores slopes (between 0 and PI/2) on 16 bits. The code is proportional
+     * to the square root of the slope, so that small slopes (flat surfaces)
+     * keep a high precision.
+     */
+    static final class Slopes extends ChannelStore {
+
+        private static final int MAX_CODE = 0xFFFF;
+        private static final double MAX_SLOPE = Math.PI / 2;
+
+        private final char[] codes;
+
+        Slopes(int size) {
+
+            codes = new char[size];
+
+        }
+
+        @Override
+        float get(int index) {
+
+            double root = (double) codes[index] / MAX_CODE;
+
+            return (float) (root * root * MAX_SLOPE);
+
+        }
+
+        @Override
+        void set(int index, float value) {
+
+            double slope = Math.max(0, Math.min(value, MAX_SLOPE));
+
+            codes[index] = (char) Math
+                    .round(Math.sqrt(slope / MAX_SLOPE) * MAX_CODE);
+
+        }
+
+        @Override
+        int size() {
+
+            return codes.length;
+
+        }
+
+        @Override
+        long byteSize() {
+
+            return (long) codes.length * Character.BYTES;
+
+        }
+
+    }
+
+}
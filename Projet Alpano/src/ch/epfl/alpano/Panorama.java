@@ -1,30 +1,59 @@
 package ch.epfl.alpano;
 
-import java.util.Arrays;
+import java.nio.FloatBuffer;
+import java.util.Collections;
+import java.util.EnumSet;
 import java.util.Objects;
+import java.util.Set;
+
+import static ch.epfl.alpano.Preconditions.checkArgument;
 
 /**
  * A instance of this class represents a panorama organized in form of samples
  * in which all relevant information are saved and are accessible. As the class
  * itself is immutable, there is a subclass that gives the possibility to build
- * up a panorama step by step.
+ * up a panorama step by step. The samples are either held on the heap or
+ * directly in a memory-mapped file (see {@link PanoramaFile}). A panorama can
+ * be built with only a part of its channels, the distance channel is always
+ * present, and its samples can be stored in a compact form (see
+ * {@link Storage}).
  * 
  * @author Natal Willisch (262092)
  *
  */
 public final class Panorama {
+
+    /**
+     * The channels of a panorama: the informations stored for every sample.
+     */
+    public enum Channel {
+        DISTANCE, LONGITUDE, LATITUDE, ELEVATION, SLOPE
+    }
+
+    /**
+     * The ways to store the samples of a panorama: as floats (20 bytes per
+     * sample) or in a compact form (14 bytes per sample) in which the
+     * distance is stored on a logarithmic scale on 16 bits, the longitude and
+     * the latitude as 32 bits fixed point numbers relative to the observer,
+     * the elevation in meters on 16 bits and the slope on 16 bits.
+     */
+    public enum Storage {
+        FLOAT, COMPACT
+    }
     
     final private PanoramaParameters parameters;
-    final private float[] distance;
-    final private float[] longitude;
-    final private float[] latitude;
-    final private float[] elevation;
-    final private float[] slope;
+    final private Set<Channel> channels;
+    final private ChannelStore distance;
+    final private ChannelStore longitude;
+    final private ChannelStore latitude;
+    final private ChannelStore elevation;
+    final private ChannelStore slope;
 
     /**
      * The constructor takes the general informations about the panorama and the
-     * informations of the samples in form of tables (every index is assign to a
-     * single sample).
+     * informations of the samples in form of stores (every index is assign to
+     * a single sample). The stores of the channels that are not computed are
+     * null.
      * 
      * @param parameters
      *            general parameters/informations of the panorama
@@ -40,17 +69,27 @@ public final class Panorama {
      * @param slope
      *            table of the slopes
      */
-    private Panorama(PanoramaParameters parameters, float[] distance,
-            float[] longitude, float[] latitude, float[] elevation,
-            float[] slope) {
+    Panorama(PanoramaParameters parameters, ChannelStore distance,
+            ChannelStore longitude, ChannelStore latitude,
+            ChannelStore elevation, ChannelStore slope) {
         
         this.parameters = parameters;
+        this.channels = EnumSet.of(Channel.DISTANCE);
         this.distance = distance;
         this.longitude = longitude;
         this.latitude = latitude;
         this.elevation = elevation;
         this.slope = slope;
         
+        if (longitude != null)
+            channels.add(Channel.LONGITUDE);
+        if (latitude != null)
+            channels.add(Channel.LATITUDE);
+        if (elevation != null)
+            channels.add(Channel.ELEVATION);
+        if (slope != null)
+            channels.add(Channel.SLOPE);
+        
     }
 
     /**
@@ -64,6 +103,17 @@ public final class Panorama {
         
     }
 
+    /**
+     * Returns the channels that are computed for this panorama.
+     * 
+     * @return the (unmodifiable) set of channels
+     */
+    public Set<Channel> channels() {
+        
+        return Collections.unmodifiableSet(channels);
+        
+    }
+
     /**
      * Returns the distance from the observer to a point represented by a sample
      * or throws an exception if the xy-index doesn't correspond to a sample in
@@ -81,7 +131,7 @@ public final class Panorama {
         
         checkValidSampleIndex(x, y);
         
-        return distance[parameters.linearSampleIndex(x, y)];
+        return distance.get(parameters.linearSampleIndex(x, y));
         
     }
 
@@ -101,7 +151,7 @@ public final class Panorama {
     public float distanceAt(int x, int y, float d) {
         
         if (parameters.isValidSampleIndex(x, y))
-            return distance[parameters.linearSampleIndex(x, y)];
+            return distance.get(parameters.linearSampleIndex(x, y));
         return d;
         
     }
@@ -117,12 +167,15 @@ public final class Panorama {
      * @return the longitude
      * @throws IndexOutOfBoundsException
      *             if the xy-index is out of the bounds of the panorama
+     * @throws IllegalStateException
+     *             if the channel is not computed
      */
     public float longitudeAt(int x, int y) {
         
         checkValidSampleIndex(x, y);
+        checkChannel(longitude);
         
-        return longitude[parameters.linearSampleIndex(x, y)];
+        return longitude.get(parameters.linearSampleIndex(x, y));
         
     }
 
@@ -137,12 +190,15 @@ public final class Panorama {
      * @return the tatitude
      * @throws IndexOutOfBoundsException
      *             if the xy-index is out of the bounds of the panorama
+     * @throws IllegalStateException
+     *             if the channel is not computed
      */
     public float latitudeAt(int x, int y) {
         
         checkValidSampleIndex(x, y);
+        checkChannel(latitude);
         
-        return latitude[parameters.linearSampleIndex(x, y)];
+        return latitude.get(parameters.linearSampleIndex(x, y));
         
     }
 
@@ -157,12 +213,15 @@ public final class Panorama {
      * @return the elevation
      * @throws IndexOutOfBoundsException
      *             if the xy-index is out of the bounds of the panorama
+     * @throws IllegalStateException
+     *             if the channel is not computed
      */
     public float elevationAt(int x, int y) {
         
         checkValidSampleIndex(x, y);
+        checkChannel(elevation);
         
-        return elevation[parameters.linearSampleIndex(x, y)];
+        return elevation.get(parameters.linearSampleIndex(x, y));
         
     }
 
@@ -177,12 +236,68 @@ public final class Panorama {
      * @return the slope
      * @throws IndexOutOfBoundsException
      *             if the xy-index is out of the bounds of the panorama
+     * @throws IllegalStateException
+     *             if the channel is not computed
      */
     public float slopeAt(int x, int y) {
         
         checkValidSampleIndex(x, y);
+        checkChannel(slope);
+        
+        return slope.get(parameters.linearSampleIndex(x, y));
+        
+    }
+
+    /**
+     * Returns all samples of a channel in a new table, line by line (the
+     * sample of the xy-index is at the index {@code y * width + x}).
+     * 
+     * @param channel
+     *            the channel
+     * @return the samples of the channel
+     * @throws IllegalStateException
+     *             if the channel is not computed
+     */
+    public float[] channelValues(Channel channel) {
+        
+        ChannelStore store = stores()[channel.ordinal()];
+        
+        checkChannel(store);
+        
+        float[] values = new float[store.size()];
+        store.get(0, values, 0, values.length);
+        return values;
+        
+    }
+
+    /**
+     * Returns the number of bytes occupied by the samples of the panorama on
+     * the heap (the samples of a mapped panorama file are not on the heap).
+     * 
+     * @return number of bytes
+     */
+    long heapSize() {
+        
+        long size = 0;
+        
+        for (ChannelStore store : stores())
+            if (store != null)
+                size += store.heapSize();
+        return size;
+        
+    }
+
+    /**
+     * Returns the stores of the five channels in the order of {@link Channel}
+     * (used to persist the panorama), the stores of the channels that are not
+     * computed are null.
+     * 
+     * @return the channel stores
+     */
+    ChannelStore[] stores() {
         
-        return slope[parameters.linearSampleIndex(x, y)];
+        return new ChannelStore[] { distance, longitude, latitude, elevation,
+                slope };
         
     }
 
@@ -195,6 +310,13 @@ public final class Panorama {
         
     }
 
+    private void checkChannel(ChannelStore channel) {
+        
+        if (channel == null)
+            throw new IllegalStateException("channel is not computed");
+        
+    }
+
     /**
      * Builder for a panorama
      * 
@@ -204,11 +326,11 @@ public final class Panorama {
     public static final class Builder {
         
         final private PanoramaParameters parameters;
-        private float[] distance;
-        private float[] longitude;
-        private float[] latitude;
-        private float[] elevation;
-        private float[] slope;
+        private ChannelStore distance;
+        private ChannelStore longitude;
+        private ChannelStore latitude;
+        private ChannelStore elevation;
+        private ChannelStore slope;
         private boolean set = false; // if buildable
 
         /**
@@ -223,18 +345,81 @@ public final class Panorama {
          */
         public Builder(PanoramaParameters parameters) {
             
+            this(parameters, EnumSet.allOf(Channel.class));
+            
+        }
+
+        /**
+         * To start building a panorama with only some channels, the
+         * constructor takes the general parameters and the wanted channels and
+         * initializes from that the tables of these channels.
+         * 
+         * @param parameters
+         *            the general parameters
+         * @param channels
+         *            the channels of the panorama
+         * @throws NullPointerException
+         *             if {@code parameters} or {@code channels} is null
+         * @throws IllegalArgumentException
+         *             if {@code channels} doesn't contain the distance
+         */
+        public Builder(PanoramaParameters parameters, Set<Channel> channels) {
+            
+            this(parameters, channels, Storage.FLOAT);
+            
+        }
+
+        /**
+         * To start building a panorama with only some channels and the given
+         * storage, the constructor takes the general parameters, the wanted
+         * channels and the storage and initializes from that the stores of
+         * these channels.
+         * 
+         * @param parameters
+         *            the general parameters
+         * @param channels
+         *            the channels of the panorama
+         * @param storage
+         *            the way the samples are stored
+         * @throws NullPointerException
+         *             if one of the arguments is null
+         * @throws IllegalArgumentException
+         *             if {@code channels} doesn't contain the distance
+         */
+        public Builder(PanoramaParameters parameters, Set<Channel> channels,
+                Storage storage) {
+            
             this.parameters = Objects.requireNonNull(parameters,
                     "parameters is null");
             
+            checkArgument(channels.contains(Channel.DISTANCE),
+                    "the distance channel is required");
+            
             int size = parameters.height() * parameters.width();
+            GeoPoint observer = parameters.observerPosition();
+            boolean compact = Objects.requireNonNull(storage,
+                    "storage is null") == Storage.COMPACT;
             
-            distance = new float[size];
-            longitude = new float[size];
-            latitude = new float[size];
-            elevation = new float[size];
-            slope = new float[size];
+            distance = compact ? new ChannelStore.LogDistances(size)
+                    : floats(size);
+            if (channels.contains(Channel.LONGITUDE))
+                longitude = compact
+                        ? new ChannelStore.FixedPointAngles(size,
+                                observer.longitude())
+                        : floats(size);
+            if (channels.contains(Channel.LATITUDE))
+                latitude = compact
+                        ? new ChannelStore.FixedPointAngles(size,
+                                observer.latitude())
+                        : floats(size);
+            if (channels.contains(Channel.ELEVATION))
+                elevation = compact ? new ChannelStore.Elevations(size)
+                        : floats(size);
+            if (channels.contains(Channel.SLOPE))
+                slope = compact ? new ChannelStore.Slopes(size) : floats(size);
             
-            Arrays.fill(distance, Float.POSITIVE_INFINITY);
+            for (int i = 0; i < size; i++)
+                distance.set(i, Float.POSITIVE_INFINITY);
             
         }
 
@@ -273,7 +458,7 @@ public final class Panorama {
          * @throws IndexOutOfBoundsException
          *             if the xy-index is out of the bounds of the panorama
          * @throws IllegalStateException
-         *             if already built
+         *             if already built or if the panorama has not this channel
          */
         public Builder setLongitudeAt(int x, int y, float longitude) {
             
@@ -295,7 +480,7 @@ public final class Panorama {
          * @throws IndexOutOfBoundsException
          *             if the xy-index is out of the bounds of the panorama
          * @throws IllegalStateException
-         *             if already built
+         *             if already built or if the panorama has not this channel
          */
         public Builder setLatitudeAt(int x, int y, float latitude) {
             
@@ -317,7 +502,7 @@ public final class Panorama {
          * @throws IndexOutOfBoundsException
          *             if the xy-index is out of the bounds of the panorama
          * @throws IllegalStateException
-         *             if already built
+         *             if already built or if the panorama has not this channel
          */
         public Builder setElevationAt(int x, int y, float elevation) {
             
@@ -339,7 +524,7 @@ public final class Panorama {
          * @throws IndexOutOfBoundsException
          *             if the xy-index is out of the bounds of the panorama
          * @throws IllegalStateException
-         *             if already built
+         *             if already built or if the panorama has not this channel
          */
         public Builder setSlopeAt(int x, int y, float slope) {
             
@@ -361,8 +546,8 @@ public final class Panorama {
             checkBuild();
             
             set = true;
-            Panorama panorama = new Panorama(parameters, distance, longitude, latitude,
-                    elevation, slope);
+            Panorama panorama = new Panorama(parameters, distance, longitude,
+                    latitude, elevation, slope);
             distance = longitude = latitude = elevation = slope = null;
             
             return panorama;
@@ -374,12 +559,14 @@ public final class Panorama {
         /**
          * Places a value at a given position of a given table
          */
-        private void set(float[] table, int x, int y, float val) {
+        private void set(ChannelStore table, int x, int y, float val) {
             
             checkBuild();
             checkValidSampleIndex(x, y);
+            if (table == null)
+                throw new IllegalStateException("channel is not built");
             
-            table[parameters.linearSampleIndex(x, y)] = val;
+            table.set(parameters.linearSampleIndex(x, y), val);
             
         }
 
@@ -390,6 +577,12 @@ public final class Panorama {
             
         }
 
+        private ChannelStore floats(int size) {
+            
+            return new ChannelStore.Floats(FloatBuffer.allocate(size));
+            
+        }
+
         private void checkBuild() {
             
             if (set)
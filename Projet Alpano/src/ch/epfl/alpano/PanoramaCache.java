@@ -0,0 +1,316 @@
+package ch.epfl.alpano;
+
+import static ch.epfl.alpano.Preconditions.checkArgument;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * A cache for computed panoramas. The panoramas are identified by a key that
+ * is the hash of the canonical form of their parameters together with a
+ * fingerprint of the elevation data they are computed from. The cache holds
+ * the most recently used panoramas in the memory, up to a given number of
+ * bytes on the heap, and can optionally store the panoramas in a directory
+ * (see {@link PanoramaFile}) from where they are reopened when they are no
+ * more in the memory (the reopened panoramas are mapped files, they are not
+ * held in the memory but reopened on every use). The directory is limited
+ * to its own number of bytes: the least recently used files are deleted
+ * first.
+ *
+ * @author Natal Willisch (262092)
+ *
+ */
+public final class PanoramaCache {
+
+    private static final String FILE_EXTENSION = ".pano";
+
+    private final String demFingerprint;
+    private final long maxBytes;
+    private final File directory;
+    private final long maxDiskBytes;
+    private final Map<String, Panorama> memory;
+    private long bytes = 0;
+
+    /**
+     * Constructs a cache that holds the panoramas only in the memory.
+     *
+     * @param demFingerprint
+     *            fingerprint of the elevation data (see
+     *            {@link #fingerprint(File...)})
+     * @param maxBytes
+     *            maximal number of bytes of the panoramas held on the heap
+     * @throws NullPointerException
+     *             if {@code demFingerprint} is null
+     * @throws IllegalArgumentException
+     *             if {@code maxBytes} is negative
+     */
+    public PanoramaCache(String demFingerprint, long maxBytes) {
+
+        this(demFingerprint, maxBytes, null, 0);
+
+    }
+
+    /**
+     * Constructs a cache that holds the most recently used panoramas in the
+     * memory and in the given directory.
+     *
+     * @param demFingerprint
+     *            fingerprint of the elevation data (see
+     *            {@link #fingerprint(File...)})
+     * @param maxBytes
+     *            maximal number of bytes of the panoramas held on the heap
+     * @param directory
+     *            directory of the panorama files, or null for a cache without
+     *            disk
+     * @param maxDiskBytes
+     *            maximal number of bytes of the panorama files in the
+     *            directory
+     * @throws NullPointerException
+     *             if {@code demFingerprint} is null
+     * @throws IllegalArgumentException
+     *             if {@code maxBytes} or {@code maxDiskBytes} is negative or
+     *             {@code directory} is not a directory
+     */
+    public PanoramaCache(String demFingerprint, long maxBytes,
+            File directory, long maxDiskBytes) {
+
+        this.demFingerprint = Objects.requireNonNull(demFingerprint,
+                "demFingerprint is null");
+
+        checkArgument(maxBytes >= 0, "maxBytes is negative");
+        checkArgument(maxDiskBytes >= 0, "maxDiskBytes is negative");
+        checkArgument(directory == null || directory.isDirectory(),
+                "not a directory");
+
+        this.maxBytes = maxBytes;
+        this.directory = directory;
+        this.maxDiskBytes = maxDiskBytes;
+        memory = new LinkedHashMap<>(16, 0.75f, true);
+
+    }
+
+    /**
+     * Returns the cached panorama for the given parameters, or null if it is
+     * neither in the memory nor in the directory.
+     *
+     * @param parameters
+     *            parameters of the panorama
+     * @return the cached panorama or null
+     */
+    public Panorama get(PanoramaParameters parameters) {
+
+        String key = key(parameters);
+        Panorama panorama;
+
+        synchronized (this) {
+            panorama = memory.get(key);
+        }
+        if (panorama != null || directory == null)
+            return panorama;
+
+        File file = new File(directory, key + FILE_EXTENSION);
+        if (!file.isFile())
+            return null;
+
+        try {
+            panorama = PanoramaFile.read(file);
+        } catch (IOException e) {
+            return null; // an unreadable file is a cache miss
+        }
+        file.setLastModified(System.currentTimeMillis()); // recently used
+        keep(key, panorama);
+
+        return panorama;
+
+    }
+
+    /**
+     * Adds a panorama to the cache. Failing to write the panorama in the
+     * directory is not an error, the panorama is then only held in the
+     * memory. The least recently used files of the directory are deleted as
+     * long as the directory holds too many bytes.
+     *
+     * @param panorama
+     *            the panorama
+     */
+    public void put(Panorama panorama) {
+
+        String key = key(panorama.parameters());
+
+        keep(key, panorama);
+
+        if (directory != null) {
+            File file = new File(directory, key + FILE_EXTENSION);
+            File temporary = null;
+
+            // every put writes its own temporary file, which replaces the
+            // panorama file atomically
+            try {
+                temporary = File.createTempFile(key, ".tmp", directory);
+                PanoramaFile.write(panorama, temporary);
+                Files.move(temporary.toPath(), file.toPath(),
+                        StandardCopyOption.ATOMIC_MOVE,
+                        StandardCopyOption.REPLACE_EXISTING);
+            } catch (IOException e) {
+                // the panorama is then only held in the memory
+            } finally {
+                if (temporary != null)
+                    temporary.delete();
+            }
+            trimDirectory();
+        }
+
+    }
+
+    /**
+     * Returns the number of bytes of the panoramas held on the heap.
+     *
+     * @return number of bytes
+     */
+    public synchronized long bytes() {
+
+        return bytes;
+
+    }
+
+    /**
+     * Computes a fingerprint of a data set from the names, the sizes and the
+     * dates of modification of its files.
+     *
+     * @param files
+     *            the files of the data set
+     * @return the fingerprint
+     */
+    public static String fingerprint(File... files) {
+
+        MessageDigest digest = sha256();
+
+        for (File f : files) {
+            digest.update(f.getName().getBytes(StandardCharsets.UTF_8));
+            digest.update(ByteBuffer.allocate(2 * Long.BYTES)
+                    .putLong(f.length()).putLong(f.lastModified()).array());
+        }
+
+        return toHex(digest.digest());
+
+    }
+
+    // private functions
+
+    /**
+     * Returns the key of a panorama: the hash of the fingerprint and the
+     * canonical form of the parameters.
+     */
+    private String key(PanoramaParameters p) {
+
+        MessageDigest digest = sha256();
+
+        digest.update(demFingerprint.getBytes(StandardCharsets.UTF_8));
+        digest.update(ByteBuffer.allocate(48)
+                .putDouble(p.observerPosition().longitude())
+                .putDouble(p.observerPosition().latitude())
+                .putInt(p.observerElevation())
+                .putDouble(p.centerAzimuth())
+                .putDouble(p.horizontalFieldOfView())
+                .putInt(p.maxDistance()).putInt(p.width()).putInt(p.height())
+                .array());
+
+        return toHex(digest.digest());
+
+    }
+
+    /**
+     * Holds a panorama in the memory and evicts the least recently used ones
+     * as long as the cache holds too many bytes on the heap. A panorama that
+     * takes no place on the heap (a mapped panorama file) is not held: it
+     * would never be evicted, and mapping its file again is cheap.
+     */
+    private synchronized void keep(String key, Panorama panorama) {
+
+        long size = panorama.heapSize();
+
+        Panorama old = memory.remove(key);
+        if (old != null)
+            bytes -= old.heapSize();
+
+        if (size == 0 || size > maxBytes)
+            return;
+
+        memory.put(key, panorama);
+        bytes += size;
+
+        Iterator<Panorama> it = memory.values().iterator();
+        while (bytes > maxBytes) {
+            bytes -= it.next().heapSize();
+            it.remove();
+        }
+
+    }
+
+    /**
+     * Deletes the least recently used (the least recently modified) panorama
+     * files of the directory as long as they hold too many bytes.
+     */
+    private synchronized void trimDirectory() {
+
+        File[] files = directory
+                .listFiles((d, name) -> name.endsWith(FILE_EXTENSION));
+
+        if (files == null)
+            return;
+
+        long total = 0;
+        long[] modified = new long[files.length];
+        Integer[] order = new Integer[files.length];
+
+        for (int i = 0; i < files.length; i++) {
+            total += files[i].length();
+            modified[i] = files[i].lastModified(); // the dates can change
+            order[i] = i;
+        }
+
+        Arrays.sort(order, Comparator.comparingLong(i -> modified[i]));
+        for (int i = 0; i < files.length && total > maxDiskBytes; i++) {
+            File f = files[order[i]];
+            long length = f.length();
+
+            if (f.delete())
+                total -= length;
+        }
+
+    }
+
+    private static MessageDigest sha256() {
+
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new Error(e); // every Java platform supports SHA-256
+        }
+
+    }
+
+    private static String toHex(byte[] bytes) {
+
+        StringBuilder b = new StringBuilder(2 * bytes.length);
+
+        for (byte x : bytes)
+            b.append(String.format("%02x", x));
+
+        return b.toString();
+
+    }
+
+}
@@ -2,9 +2,13 @@ package ch.epfl.alpano;
 
 import static ch.epfl.alpano.Math2.*;
 
+import java.util.EnumSet;
 import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
 import java.util.function.DoubleUnaryOperator;
 
+import ch.epfl.alpano.Panorama.Channel;
 import ch.epfl.alpano.dem.ContinuousElevationModel;
 import ch.epfl.alpano.dem.ElevationProfile;
 
@@ -14,6 +18,10 @@ import ch.epfl.alpano.dem.ElevationProfile;
  * and creates with the help of the subclass Panorama.Build a corresponding
  * panorama-object.
  * 
+ * A computation can be cancelled by interrupting its thread: the computer
+ * checks the interruption before every column of the panorama and then stops
+ * with a {@link CancellationException}.
+ * 
  * @author Natal Willisch (262092)
  *
  */
@@ -26,6 +34,7 @@ public final class PanoramaComputer {
     private final static double DISTANCE_EPSILON = 4;
 
     private final ContinuousElevationModel dem;
+    private final PanoramaCache cache;
 
     /**
      * Construct a new panorma-computer that contains a continuous
@@ -38,13 +47,34 @@ public final class PanoramaComputer {
      */
     public PanoramaComputer(ContinuousElevationModel dem) {
         
+        this(dem, null);
+        
+    }
+
+    /**
+     * Construct a new panorma-computer that contains a continuous
+     * elevation-model and that reuses the panoramas of a cache. The cache has
+     * to be created with the fingerprint of the elevation data of the model.
+     * 
+     * @param dem
+     *            a continuous elevation model of the landscape
+     * @param cache
+     *            cache of computed panoramas, or null for no cache
+     * @throws NullPointerException
+     *             if {@code dem} is null
+     */
+    public PanoramaComputer(ContinuousElevationModel dem,
+            PanoramaCache cache) {
+        
         this.dem = Objects.requireNonNull(dem,
                 "ContinousElevationModel is null");
+        this.cache = cache;
         
     }
 
     /**
-     * Calculates from its CEM the demanded panorama.
+     * Calculates from its CEM the demanded panorama, or takes it from the
+     * cache if it was already calculated.
      * 
      * @param parameters
      *            parameters that define view, position, direction etc. of the
@@ -52,24 +82,129 @@ public final class PanoramaComputer {
      * @return the demanded panorama
      * @throws NullPointerException
      *             if {@code parameters} is null
+     * @throws CancellationException
+     *             if the thread is interrupted during the computation
      */
     public Panorama computePanorama(PanoramaParameters parameters) {
         
+        return computePanorama(parameters, EnumSet.allOf(Channel.class));
+        
+    }
+
+    /**
+     * Calculates from its CEM the demanded panorama with only the given
+     * channels (the distance is always calculated), or takes it from the
+     * cache if it was already calculated with at least these channels.
+     * 
+     * @param parameters
+     *            parameters that define view, position, direction etc. of the
+     *            wanted panorama
+     * @param channels
+     *            the wanted channels
+     * @return the demanded panorama
+     * @throws NullPointerException
+     *             if {@code parameters} or {@code channels} is null
+     * @throws CancellationException
+     *             if the thread is interrupted during the computation
+     */
+    public Panorama computePanorama(PanoramaParameters parameters,
+            Set<Channel> channels) {
+        
+        return computePanorama(parameters, channels, Panorama.Storage.FLOAT);
+        
+    }
+
+    /**
+     * Calculates from its CEM the demanded panorama with only the given
+     * channels and stores its samples in the given way, or takes it from the
+     * cache if it was already calculated with at least these channels (in
+     * this case the samples are stored as they were stored in the cached
+     * panorama).
+     * 
+     * @param parameters
+     *            parameters that define view, position, direction etc. of the
+     *            wanted panorama
+     * @param channels
+     *            the wanted channels
+     * @param storage
+     *            the way the samples are stored
+     * @return the demanded panorama
+     * @throws NullPointerException
+     *             if one of the arguments is null
+     * @throws CancellationException
+     *             if the thread is interrupted during the computation
+     */
+    public Panorama computePanorama(PanoramaParameters parameters,
+            Set<Channel> channels, Panorama.Storage storage) {
+        
+        Objects.requireNonNull(storage, "storage is null");
+        Set<Channel> wanted = EnumSet.of(Channel.DISTANCE);
+        wanted.addAll(channels);
+        
+        Panorama panorama = cache == null ? null : cache.get(parameters);
+        
+        if (panorama == null || !panorama.channels().containsAll(wanted)) {
+            panorama = compute(parameters, wanted, storage);
+            if (cache != null)
+                cache.put(panorama);
+        }
+        return panorama;
+        
+    }
+
+    /**
+     * Unary function to find a zero between an imagined light ray and the
+     * ground (of the elevation model).
+     * 
+     * @param profile
+     *            the elevation profile that represents the elevation model in a
+     *            certain direction
+     * @param ray0
+     *            the initial height of the observer
+     * @param raySlope
+     *            the "view angle" (of the ray)
+     * @return returns the difference between the ray and the ground at a given
+     *         point
+     */
+    public static DoubleUnaryOperator rayToGroundDistance(
+            ElevationProfile profile, double ray0, double raySlope) {
+        
+        return (x) -> ray0 + x * raySlope - profile.elevationAt(x)
+                + COMPENSATOR * sq(x);
+
+    }
+
+    // private functions
+
+    /**
+     * Calculates the panorama from the CEM.
+     */
+    private Panorama compute(PanoramaParameters parameters,
+            Set<Channel> channels, Panorama.Storage storage) {
+        
         double distanceLowerBound, d;
         GeoPoint position;
         ElevationProfile profile;
-        Panorama.Builder build = new Panorama.Builder(parameters);
+        Panorama.Builder build = new Panorama.Builder(parameters, channels,
+                storage);
+        boolean longitude = channels.contains(Channel.LONGITUDE);
+        boolean latitude = channels.contains(Channel.LATITUDE);
+        boolean elevation = channels.contains(Channel.ELEVATION);
+        boolean slope = channels.contains(Channel.SLOPE);
         DoubleUnaryOperator distanceFunc;
         for (int x = 0; x < parameters.width(); x++) {
+            if (Thread.currentThread().isInterrupted())
+                throw new CancellationException("computation interrupted");
+
             d = 0;
             distanceLowerBound = 0;
             profile = new ElevationProfile(dem, parameters.observerPosition(),
-                    parameters.azimuthForX(x), parameters.maxDistance());
+                    parameters.azimuthForColumn(x), parameters.maxDistance());
             
             for (int y = parameters.height() - 1; y >= 0; y--) {
                 distanceFunc = rayToGroundDistance(profile,
                         parameters.observerElevation(),
-                        Math.tan(parameters.altitudeForY(y)));
+                        parameters.tanAltitudeForRow(y));
                 distanceLowerBound = firstIntervalContainingRoot(distanceFunc,
                         d, parameters.maxDistance() - RESEARCH_INTERVAL, RESEARCH_INTERVAL);
                 
@@ -77,14 +212,24 @@ public final class PanoramaComputer {
                     d = improveRoot(distanceFunc, distanceLowerBound,
                             distanceLowerBound + RESEARCH_INTERVAL,
                             DISTANCE_EPSILON);
-                    position = profile.positionAt(d);
-
-                    build.setDistanceAt(x, y, (float) (d/Math.cos(parameters.altitudeForY(y))))
-                            .setElevationAt(x, y,
-                                    (float) dem.elevationAt(position))
-                            .setLatitudeAt(x, y, (float) position.latitude())
-                            .setLongitudeAt(x, y, (float) position.longitude())
-                            .setSlopeAt(x, y, (float) dem.slopeAt(position));
+                    build.setDistanceAt(x, y, (float) (d * parameters.inverseCosAltitudeForRow(y)));
+                    
+                    if (longitude || latitude || elevation || slope) {
+                        position = profile.positionAt(d);
+                        
+                        if (elevation)
+                            build.setElevationAt(x, y,
+                                    (float) dem.elevationAt(position));
+                        if (latitude)
+                            build.setLatitudeAt(x, y,
+                                    (float) position.latitude());
+                        if (longitude)
+                            build.setLongitudeAt(x, y,
+                                    (float) position.longitude());
+                        if (slope)
+                            build.setSlopeAt(x, y,
+                                    (float) dem.slopeAt(position));
+                    }
                 } else 
                     break;
             }
@@ -92,26 +237,4 @@ public final class PanoramaComputer {
         return build.build();
 
     }
-
-    /**
-     * Unary function to find a zero between an imagined light ray and the
-     * ground (of the elevation model).
-     * 
-     * @param profile
-     *            the elevation profile that represents the elevation model in a
-     *            certain direction
-     * @param ray0
-     *            the initial height of the observer
-     * @param raySlope
-     *            the "view angle" (of the ray)
-     * @return returns the difference between the ray and the ground at a given
-     *         point
-     */
-    public static DoubleUnaryOperator rayToGroundDistance(
-            ElevationProfile profile, double ray0, double raySlope) {
-        
-        return (x) -> ray0 + x * raySlope - profile.elevationAt(x)
-                + COMPENSATOR * sq(x);
-
-    }
 }
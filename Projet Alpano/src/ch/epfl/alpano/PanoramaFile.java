@@ -0,0 +1,181 @@
+package ch.epfl.alpano;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+
+/**
+ * This class stores panoramas in a binary file and reopens them without
+ * recomputing them. A file starts with a header of {@value #HEADER_SIZE} bytes
+ * that contains the parameters of the panorama and the set of its channels,
+ * followed by the channels (in the order distance, longitude, latitude,
+ * elevation and slope) as contiguous blocks of little-endian floats (also for
+ * panoramas with a compact storage). The reader maps the file in the memory, so the samples
+ * are only loaded when they are accessed and they are never copied on the
+ * heap.
+ *
+ * @author Natal Willisch (262092)
+ *
+ */
+public final class PanoramaFile {
+
+    /**
+     * Size of the header in bytes (the channels start at this offset)
+     */
+    public static final int HEADER_SIZE = 64;
+
+    private static final int MAGIC = 0x4E504C41; // "ALPN" in little-endian
+    private static final int VERSION = 1;
+    private static final int CHANNEL_COUNT = Panorama.Channel.values().length;
+    private static final int BLOCK_SIZE = 1 << 16; // floats written at once
+
+    // private constructor
+    private PanoramaFile() {
+    }
+
+    /**
+     * Writes a panorama in a file (an existing file is overwritten).
+     *
+     * @param panorama
+     *            the panorama
+     * @param file
+     *            the destination file
+     * @throws IOException
+     *             if the file can not be written
+     */
+    public static void write(Panorama panorama, File file) throws IOException {
+
+        PanoramaParameters p = panorama.parameters();
+        ChannelStore[] stores = panorama.stores();
+        int mask = 0;
+
+        for (int i = 0; i < CHANNEL_COUNT; i++)
+            if (stores[i] != null)
+                mask |= 1 << i;
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE)
+                .order(ByteOrder.LITTLE_ENDIAN);
+
+        header.putInt(MAGIC).putInt(VERSION)
+                .putDouble(p.observerPosition().longitude())
+                .putDouble(p.observerPosition().latitude())
+                .putInt(p.observerElevation()).putInt(p.maxDistance())
+                .putDouble(p.centerAzimuth())
+                .putDouble(p.horizontalFieldOfView()).putInt(p.width())
+                .putInt(p.height()).putInt(mask);
+        header.clear();
+
+        float[] samples = new float[BLOCK_SIZE];
+        ByteBuffer block = ByteBuffer.allocate(BLOCK_SIZE * Float.BYTES)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        FloatBuffer blockFloats = block.asFloatBuffer();
+
+        try (FileChannel out = new FileOutputStream(file).getChannel()) {
+            writeFully(out, header);
+            for (ChannelStore store : stores) {
+                if (store == null)
+                    continue;
+                for (int i = 0; i < store.size(); i += BLOCK_SIZE) {
+                    int n = Math.min(store.size() - i, BLOCK_SIZE);
+
+                    store.get(i, samples, 0, n);
+                    blockFloats.clear();
+                    blockFloats.put(samples, 0, n);
+                    block.clear().limit(n * Float.BYTES);
+                    writeFully(out, block);
+                }
+            }
+        }
+
+    }
+
+    /**
+     * Opens a panorama file. The returned panorama reads its samples directly
+     * from the mapped file.
+     *
+     * @param file
+     *            the panorama file
+     * @return the panorama stored in the file
+     * @throws IOException
+     *             if the file can not be read or is not a valid panorama file
+     */
+    public static Panorama read(File file) throws IOException {
+
+        try (FileChannel in = new FileInputStream(file).getChannel()) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+
+            while (header.hasRemaining())
+                if (in.read(header) < 0)
+                    throw new IOException("incomplete header");
+            header.flip();
+
+            if (header.getInt() != MAGIC)
+                throw new IOException("not a panorama file");
+            if (header.getInt() != VERSION)
+                throw new IOException("unsupported version");
+
+            PanoramaParameters parameters;
+            try {
+                GeoPoint position = new GeoPoint(header.getDouble(),
+                        header.getDouble());
+                int observerElevation = header.getInt();
+                int maxDistance = header.getInt();
+                double centerAzimuth = header.getDouble();
+                double horizontalFieldOfView = header.getDouble();
+                int width = header.getInt();
+                int height = header.getInt();
+
+                parameters = new PanoramaParameters(position,
+                        observerElevation, centerAzimuth,
+                        horizontalFieldOfView, maxDistance, width, height);
+            } catch (IllegalArgumentException e) {
+                throw new IOException("invalid parameters", e);
+            }
+
+            int mask = header.getInt();
+            if ((mask & 1) == 0 || mask >>> CHANNEL_COUNT != 0)
+                throw new IOException("unsupported channels");
+
+            long channelSize = (long) parameters.width() * parameters.height()
+                    * Float.BYTES;
+            if (channelSize > Integer.MAX_VALUE)
+                throw new IOException("channel too large to be mapped");
+            if (in.size() != HEADER_SIZE
+                    + Integer.bitCount(mask) * channelSize)
+                throw new IOException("invalid file-size");
+
+            ChannelStore[] channels = new ChannelStore[CHANNEL_COUNT];
+            long offset = HEADER_SIZE;
+            for (int i = 0; i < CHANNEL_COUNT; i++) {
+                if ((mask & 1 << i) != 0) {
+                    channels[i] = new ChannelStore.Floats(in
+                            .map(MapMode.READ_ONLY, offset, channelSize)
+                            .order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer());
+                    offset += channelSize;
+                }
+            }
+
+            return new Panorama(parameters, channels[0], channels[1],
+                    channels[2], channels[3], channels[4]);
+        }
+
+    }
+
+    // private functions
+
+    private static void writeFully(FileChannel out, ByteBuffer b)
+            throws IOException {
+
+        while (b.hasRemaining())
+            out.write(b);
+
+    }
+
+}
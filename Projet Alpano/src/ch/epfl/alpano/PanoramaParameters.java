@@ -6,7 +6,9 @@ import static ch.epfl.alpano.Preconditions.*;
 /**
  * This class is there to store the general information of a panorama. There are
  * methodes that transform view angles into position in the panorama and the
- * other way around.
+ * other way around. For the loops over all samples, the angles of the columns
+ * and rows are also available from tables that are computed at their first
+ * use.
  * 
  * @author Natal Willisch (262092)
  *
@@ -18,6 +20,8 @@ public final class PanoramaParameters {
             verticalFieldOfView;
     private final int observerElevation, maxDistance, width, height;
     private final int reducedWith, reducedHeight;
+    private volatile double[] azimuths;
+    private volatile RowTables rowTables;
 
     /**
      * The Constructor takes all parameters to define a view (=panorama).
@@ -250,6 +254,78 @@ public final class PanoramaParameters {
         
     }
 
+    /**
+     * Returns the azimuth of a column (the same as {@link #azimuthForX}) from
+     * a table, without checking the index.
+     * 
+     * @param x
+     *            horizontal position/index
+     * @return azimuth
+     * @throws ArrayIndexOutOfBoundsException
+     *             if {@code x} is out of the boundaries of the panorama
+     */
+    public double azimuthForColumn(int x) {
+        
+        double[] table = azimuths;
+        
+        if (table == null) {
+            table = new double[width];
+            for (int i = 0; i < width; i++)
+                table[i] = azimuthForX(i);
+            azimuths = table;
+        }
+        return table[x];
+        
+    }
+
+    /**
+     * Returns the altitude of a row (the same as {@link #altitudeForY}) from a
+     * table, without checking the index.
+     * 
+     * @param y
+     *            vertical position/index
+     * @return altitude
+     * @throws ArrayIndexOutOfBoundsException
+     *             if {@code y} is out of the boundaries of the panorama
+     */
+    public double altitudeForRow(int y) {
+        
+        return rowTables().altitudes[y];
+        
+    }
+
+    /**
+     * Returns the tangent of the altitude of a row from a table, without
+     * checking the index.
+     * 
+     * @param y
+     *            vertical position/index
+     * @return tangent of the altitude
+     * @throws ArrayIndexOutOfBoundsException
+     *             if {@code y} is out of the boundaries of the panorama
+     */
+    public double tanAltitudeForRow(int y) {
+        
+        return rowTables().tangents[y];
+        
+    }
+
+    /**
+     * Returns the inverse of the cosine of the altitude of a row from a table,
+     * without checking the index.
+     * 
+     * @param y
+     *            vertical position/index
+     * @return 1 / cos(altitude)
+     * @throws ArrayIndexOutOfBoundsException
+     *             if {@code y} is out of the boundaries of the panorama
+     */
+    public double inverseCosAltitudeForRow(int y) {
+        
+        return rowTables().inverseCosines[y];
+        
+    }
+
     /**
      * Checks if a sample index (x,y) represents a sample in the panorama (means
      * xy-index is within the boundaries of the panorama).
@@ -290,4 +366,40 @@ public final class PanoramaParameters {
         
     }
 
+    /**
+     * Returns the tables of the rows and computes them at the first call (as
+     * they are always computed the same way, it doesn't matter if two threads
+     * compute them at the same time).
+     */
+    private RowTables rowTables() {
+        
+        RowTables tables = rowTables;
+        
+        if (tables == null)
+            rowTables = tables = new RowTables();
+        return tables;
+        
+    }
+
+    /**
+     * The altitude, its tangent and the inverse of its cosine for every row.
+     */
+    private final class RowTables {
+        
+        private final double[] altitudes = new double[height];
+        private final double[] tangents = new double[height];
+        private final double[] inverseCosines = new double[height];
+        
+        RowTables() {
+            
+            for (int y = 0; y < height; y++) {
+                altitudes[y] = altitudeForY(y);
+                tangents[y] = Math.tan(altitudes[y]);
+                inverseCosines[y] = 1 / Math.cos(altitudes[y]);
+            }
+            
+        }
+        
+    }
+
 }
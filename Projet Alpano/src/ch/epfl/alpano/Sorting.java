@@ -0,0 +1,48 @@
+package ch.epfl.alpano;
+
+import java.util.function.IntBinaryOperator;
+
+/**
+ * This class sorts tables of primitive values without boxing them.
+ *
+ * @author Natal Willisch (262092)
+ *
+ */
+public interface Sorting {
+
+    /**
+     * Sorts a table of ints with a comparator of ints. The sort is a merge
+     * sort, so it is stable and the ints are not boxed (typically the ints
+     * are indices that are compared by the values of other tables).
+     *
+     * @param a
+     *            the table
+     * @param comparator
+     *            function that returns a negative number, zero or a positive
+     *            number if its first int is smaller, equal or bigger than its
+     *            second one
+     */
+    public static void sort(int[] a, IntBinaryOperator comparator) {
+
+        int[] buffer = new int[a.length];
+
+        for (int width = 1; width < a.length; width *= 2) {
+            for (int from = 0; from < a.length; from += 2 * width) {
+                int middle = Math.min(from + width, a.length);
+                int to = Math.min(from + 2 * width, a.length);
+                int i = from, j = middle, k = from;
+
+                while (i < middle && j < to)
+                    buffer[k++] = comparator.applyAsInt(a[j], a[i]) < 0
+                            ? a[j++] : a[i++];
+                while (i < middle)
+                    buffer[k++] = a[i++];
+                while (j < to)
+                    buffer[k++] = a[j++];
+            }
+            System.arraycopy(buffer, 0, a, 0, a.length);
+        }
+
+    }
+
+}
@@ -0,0 +1,200 @@
+package ch.epfl.alpano.batch;
+
+import java.io.File;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+
+import ch.epfl.alpano.gui.PanoramaUserParameters;
+import ch.epfl.alpano.gui.PredefinedPanoramas;
+import ch.epfl.alpano.gui.UserParameter;
+import ch.epfl.alpano.gui.ViewMode;
+
+/**
+ * A job of the batch renderer: the parameters of a panorama, its view mode
+ * and the PNG file of its image. A job is described by a line of pairs
+ * {@code key=value} separated by spaces, for example
+ * 
+ * <pre>
+ * observer_longitude=76500 observer_latitude=467300 observer_elevation=600
+ * center_azimuth=180 horizontal_field_of_view=110 mode=night output=niesen.png
+ * </pre>
+ * 
+ * The keys of the parameters are the names of the {@link UserParameter}s and
+ * the names of the view modes are the ones of {@link ViewMode} (both in any
+ * case). The maximal distance, the width, the height and the supersampling
+ * exponent default to the ones of the {@link PredefinedPanoramas} and the
+ * mode defaults to {@link ViewMode#RAINBOW}; the other keys are required.
+ *
+ * @author Natal Willisch (262092)
+ *
+ */
+public final class BatchJob {
+
+    private static final String MODE = "mode";
+    private static final String OUTPUT = "output";
+
+    private final PanoramaUserParameters parameters;
+    private final ViewMode mode;
+    private final File output;
+
+    /**
+     * Constructs a job.
+     *
+     * @param parameters
+     *            parameters of the panorama
+     * @param mode
+     *            view mode of the image
+     * @param output
+     *            PNG file of the image
+     * @throws NullPointerException
+     *             if one of the arguments is null
+     */
+    public BatchJob(PanoramaUserParameters parameters, ViewMode mode,
+            File output) {
+
+        this.parameters = Objects.requireNonNull(parameters,
+                "parameters is null");
+        this.mode = Objects.requireNonNull(mode, "mode is null");
+        this.output = Objects.requireNonNull(output, "output is null");
+
+    }
+
+    /**
+     * Parses the description of a job.
+     *
+     * @param line
+     *            the description
+     * @return the job
+     * @throws IllegalArgumentException
+     *             if the description is not valid
+     */
+    public static BatchJob parse(String line) {
+
+        Map<String, String> values = new HashMap<>();
+
+        for (String pair : line.trim().split("\\s+")) {
+            int equal = pair.indexOf('=');
+
+            if (equal <= 0 || values.put(
+                    pair.substring(0, equal).toLowerCase(Locale.ROOT),
+                    pair.substring(equal + 1)) != null)
+                throw new IllegalArgumentException("invalid pair: " + pair);
+        }
+
+        String output = values.remove(OUTPUT);
+        if (output == null || output.isEmpty())
+            throw new IllegalArgumentException("no output");
+
+        ViewMode mode = mode(values.remove(MODE));
+        PanoramaUserParameters parameters = parameters(values);
+
+        if (!values.isEmpty())
+            throw new IllegalArgumentException(
+                    "unknown keys: " + values.keySet());
+
+        return new BatchJob(parameters, mode, new File(output));
+
+    }
+
+    /**
+     * Returns the parameters given by their values (see
+     * {@link BatchJob}), which are sanitized as the ones entered in the
+     * user-interface.
+     *
+     * @param values
+     *            the values by key (in lower case), the entries used are
+     *            removed, the other ones are ignored
+     * @return the parameters
+     * @throws IllegalArgumentException
+     *             if a required value is missing or a value is not an integer
+     */
+    public static PanoramaUserParameters parameters(Map<String, String> values) {
+
+        Map<UserParameter, Integer> parameters = new EnumMap<>(
+                UserParameter.class);
+
+        parameters.put(UserParameter.MAX_DISTANCE,
+                PredefinedPanoramas.MAX_DISTANCE);
+        parameters.put(UserParameter.WIDTH, PredefinedPanoramas.WIDTH);
+        parameters.put(UserParameter.HEIGHT, PredefinedPanoramas.HEIGHT);
+        parameters.put(UserParameter.SUPER_SAMPLING_EXPONENT,
+                PredefinedPanoramas.SUPER_SAMPLING_EXPONENT);
+
+        for (UserParameter p : UserParameter.values()) {
+            String value = values.remove(p.name().toLowerCase(Locale.ROOT));
+
+            if (value != null) {
+                try {
+                    parameters.put(p, Integer.parseInt(value));
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException(
+                            "invalid value: " + value);
+                }
+            } else if (!parameters.containsKey(p))
+                throw new IllegalArgumentException("missing parameter: "
+                        + p.name().toLowerCase(Locale.ROOT));
+        }
+
+        return new PanoramaUserParameters(parameters);
+
+    }
+
+    /**
+     * Returns the view mode of a name (in any case).
+     *
+     * @param name
+     *            the name, or null for the default mode
+     * @return the view mode
+     * @throws IllegalArgumentException
+     *             if there is no mode with this name
+     */
+    public static ViewMode mode(String name) {
+
+        if (name == null)
+            return ViewMode.RAINBOW;
+
+        try {
+            return ViewMode.valueOf(name.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("unknown mode: " + name);
+        }
+
+    }
+
+    /**
+     * Returns the parameters of the panorama.
+     *
+     * @return the parameters
+     */
+    public PanoramaUserParameters parameters() {
+
+        return parameters;
+
+    }
+
+    /**
+     * Returns the view mode of the image.
+     *
+     * @return the view mode
+     */
+    public ViewMode mode() {
+
+        return mode;
+
+    }
+
+    /**
+     * Returns the PNG file of the image.
+     *
+     * @return the file
+     */
+    public File output() {
+
+        return output;
+
+    }
+
+}
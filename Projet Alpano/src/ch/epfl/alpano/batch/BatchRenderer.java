@@ -0,0 +1,528 @@
+package ch.epfl.alpano.batch;
+
+import static ch.epfl.alpano.Preconditions.checkArgument;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+import ch.epfl.alpano.Panorama;
+import ch.epfl.alpano.PanoramaCache;
+import ch.epfl.alpano.PanoramaComputer;
+import ch.epfl.alpano.dem.ContinuousElevationModel;
+import ch.epfl.alpano.dem.DiscreteElevationModel;
+import ch.epfl.alpano.dem.HgtDiscreteElevationModel;
+import ch.epfl.alpano.export.PngWriter;
+import ch.epfl.alpano.gui.Labelizer;
+import ch.epfl.alpano.gui.PanoramaLayers;
+import ch.epfl.alpano.gui.PanoramaUserParameters;
+import ch.epfl.alpano.summit.Summit;
+import ch.epfl.alpano.summit.SummitCache;
+
+/**
+ * Renders panoramas without user-interface (and without javafx) for a list of
+ * jobs (see {@link BatchJob}), in PNG files. The elevation model and the
+ * summits are loaded once for all jobs and the panoramas are computed by a
+ * shared computer with a cache. The jobs that need the same panorama at the
+ * same time wait for the same computation, so the jobs that only differ in
+ * their view mode compute their panorama once. The jobs run concurrently in
+ * a pool with a given number of threads, which also runs the parallel parts
+ * of the rendering.
+ * 
+ * <pre>
+ * java ch.epfl.alpano.batch.BatchRenderer [-dem directory] [-summits file]
+ *         [-threads n] [-stats file] [jobs file | -]
+ * </pre>
+ * 
+ * The elevation model is made of all HGT files of the directory (the current
+ * one by default), the jobs are read from the given file or from the standard
+ * input (one job per line, empty lines and lines starting with # are
+ * ignored). The summits are read from a gazetteer (see
+ * {@link SummitCache#readSummitsFrom}); the labels are javafx nodes, so they
+ * are not drawn, but the summits that would be labeled are counted in the
+ * statistics. The statistics of every job are printed, and also written in
+ * CSV format in the stats file if one is given. The exit status is 0 if all jobs
+ * succeeded, 1 if a job failed and 2 if the arguments or the jobs are not
+ * valid.
+ *
+ * @author Natal Willisch (262092)
+ *
+ */
+public final class BatchRenderer {
+
+    private static final long CACHE_SIZE = 1L << 28; // bytes of cached panoramas
+    private static final String SUMMITS_CACHE = ".summits"; // file extension
+
+    private final PanoramaComputer computer;
+    private final Labelizer labelizer;
+    private final int threads;
+    private final Map<PanoramaUserParameters, CompletableFuture<Panorama>> computing = new ConcurrentHashMap<>();
+
+    /**
+     * Constructs a renderer.
+     *
+     * @param dem
+     *            the elevation model
+     * @param cache
+     *            cache of the computed panoramas (or null)
+     * @param summits
+     *            the summits (or null to not label the panoramas)
+     * @param threads
+     *            number of threads that run the jobs
+     * @throws NullPointerException
+     *             if {@code dem} is null
+     * @throws IllegalArgumentException
+     *             if the number of threads is not positive
+     */
+    public BatchRenderer(ContinuousElevationModel dem, PanoramaCache cache,
+            List<Summit> summits, int threads) {
+
+        checkArgument(threads > 0, "threads is not positive");
+
+        this.computer = new PanoramaComputer(dem, cache);
+        this.labelizer = summits == null ? null : new Labelizer(dem, summits);
+        this.threads = threads;
+
+    }
+
+    /**
+     * Runs jobs concurrently and waits until all of them are completed. A
+     * failed job does not stop the other ones.
+     *
+     * @param jobs
+     *            the jobs
+     * @return the results of the jobs, in the order of the jobs
+     */
+    public List<Result> render(List<BatchJob> jobs) {
+
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        List<ForkJoinTask<Result>> tasks = new ArrayList<>();
+
+        try {
+            for (BatchJob job : jobs)
+                tasks.add(pool.submit(() -> run(job)));
+
+            List<Result> results = new ArrayList<>();
+            for (ForkJoinTask<Result> task : tasks)
+                results.add(task.join());
+
+            return Collections.unmodifiableList(results);
+
+        } finally {
+            pool.shutdown();
+        }
+
+    }
+
+    /**
+     * Reads the jobs of a stream (which is not closed).
+     *
+     * @param in
+     *            the stream
+     * @return the jobs
+     * @throws IOException
+     *             if the stream can not be read or a job is not valid (the
+     *             message then contains the number of the line)
+     */
+    public static List<BatchJob> readJobs(InputStream in) throws IOException {
+
+        BufferedReader reader = new BufferedReader(
+                new InputStreamReader(in, StandardCharsets.UTF_8));
+        List<BatchJob> jobs = new ArrayList<>();
+        String line;
+        int number = 0;
+
+        while ((line = reader.readLine()) != null) {
+            number++;
+            if (line.trim().isEmpty() || line.trim().startsWith("#"))
+                continue;
+
+            try {
+                jobs.add(BatchJob.parse(line));
+            } catch (IllegalArgumentException e) {
+                throw new IOException("line " + number + ": " + e.getMessage());
+            }
+        }
+
+        return jobs;
+
+    }
+
+    /**
+     * Loads the elevation model made of all HGT files of a directory, which
+     * must cover a rectangle.
+     *
+     * @param directory
+     *            the directory
+     * @return the elevation model
+     * @throws IOException
+     *             if there is no HGT file in the directory, a file is not
+     *             valid or the files do not cover a rectangle
+     */
+    public static DiscreteElevationModel loadDem(File directory)
+            throws IOException {
+
+        File[] files = directory.listFiles((d, name) -> name.endsWith(".hgt"));
+
+        if (files == null || files.length == 0)
+            throw new IOException("no HGT file in " + directory);
+        Arrays.sort(files);
+
+        // the tiles by row (south to north), then by column (west to east)
+        Map<Integer, Map<Integer, DiscreteElevationModel>> rows = new TreeMap<>();
+
+        for (File f : files) {
+            try {
+                DiscreteElevationModel tile = new HgtDiscreteElevationModel(f);
+
+                rows.computeIfAbsent(tile.extent().iY().includedFrom(),
+                        y -> new TreeMap<>())
+                        .put(tile.extent().iX().includedFrom(), tile);
+            } catch (IllegalArgumentException e) {
+                throw new IOException("invalid HGT file: " + f.getName());
+            }
+        }
+
+        try {
+            DiscreteElevationModel dem = null;
+
+            for (Map<Integer, DiscreteElevationModel> row : rows.values()) {
+                DiscreteElevationModel rowDem = null;
+
+                for (DiscreteElevationModel tile : row.values())
+                    rowDem = rowDem == null ? tile : rowDem.union(tile);
+                dem = dem == null ? rowDem : dem.union(rowDem);
+            }
+            return dem;
+
+        } catch (IllegalArgumentException e) {
+            throw new IOException("the HGT files do not cover a rectangle");
+        }
+
+    }
+
+    /**
+     * Launches the batch renderer (see {@link BatchRenderer}).
+     *
+     * @param args
+     *            the arguments
+     */
+    public static void main(String[] args) {
+
+        File demDirectory = new File(".");
+        File summitsFile = null;
+        File statsFile = null;
+        String jobsFile = "-";
+        int threads = Runtime.getRuntime().availableProcessors();
+
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                case "-dem":
+                    demDirectory = new File(argument(args, ++i));
+                    break;
+                case "-summits":
+                    summitsFile = new File(argument(args, ++i));
+                    break;
+                case "-threads":
+                    threads = Integer.parseInt(argument(args, ++i));
+                    checkArgument(threads > 0, "threads is not positive");
+                    break;
+                case "-stats":
+                    statsFile = new File(argument(args, ++i));
+                    break;
+                default:
+                    checkArgument(i == args.length - 1,
+                            "unknown option: " + args[i]);
+                    jobsFile = args[i];
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println("usage: java " + BatchRenderer.class.getName()
+                    + " [-dem directory] [-summits file] [-threads n]"
+                    + " [-stats file]"
+                    + " [jobs file | -]");
+            System.exit(2);
+        }
+
+        List<BatchJob> jobs;
+        DiscreteElevationModel dem;
+        List<Summit> summits = null;
+
+        try {
+            try (InputStream in = jobsFile.equals("-") ? System.in
+                    : new FileInputStream(jobsFile)) {
+                jobs = readJobs(in);
+            }
+            dem = loadDem(demDirectory);
+            if (summitsFile != null)
+                summits = SummitCache.readSummitsFrom(summitsFile,
+                        new File(summitsFile.getPath() + SUMMITS_CACHE));
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+            System.exit(2);
+            return;
+        }
+
+        long start = System.nanoTime();
+        List<Result> results = new BatchRenderer(
+                new ContinuousElevationModel(dem),
+                new PanoramaCache(PanoramaCache
+                        .fingerprint(demDirectory.listFiles(
+                                (d, name) -> name.endsWith(".hgt"))),
+                        CACHE_SIZE),
+                summits, threads).render(jobs);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        int failed = 0;
+
+        for (Result r : results) {
+            System.out.println(r);
+            if (!r.isSuccessful())
+                failed++;
+        }
+        System.out.println(String.format(Locale.ROOT,
+                "%d jobs (%d failed) in %.1f s with %d threads",
+                results.size(), failed, seconds, threads));
+
+        if (statsFile != null) {
+            try (PrintStream out = new PrintStream(statsFile, "UTF-8")) {
+                out.println(Result.CSV_HEADER);
+                for (Result r : results)
+                    out.println(r.toCsv());
+            } catch (IOException e) {
+                System.err.println("stats not written: " + e.getMessage());
+                failed++;
+            }
+        }
+
+        try {
+            dem.close();
+        } catch (Exception e) {
+            // the process ends anyway
+        }
+        System.exit(failed == 0 ? 0 : 1);
+
+    }
+
+    /**
+     * The result of a job: the size of its image and the times spent to
+     * compute its panorama and to render its image, or the error that made it
+     * fail.
+     */
+    public static final class Result {
+
+        private static final String CSV_HEADER = "output,mode,width,height,"
+                + "compute_ms,render_ms,summits,error";
+
+        private final BatchJob job;
+        private final int width;
+        private final int height;
+        private final long computeMillis;
+        private final long renderMillis;
+        private final int summits;
+        private final Throwable error;
+
+        private Result(BatchJob job, int width, int height, long computeMillis,
+                long renderMillis, int summits, Throwable error) {
+
+            this.job = job;
+            this.width = width;
+            this.height = height;
+            this.computeMillis = computeMillis;
+            this.renderMillis = renderMillis;
+            this.summits = summits;
+            this.error = error;
+
+        }
+
+        /**
+         * Returns the job.
+         *
+         * @return the job
+         */
+        public BatchJob job() {
+
+            return job;
+
+        }
+
+        /**
+         * Returns true if the image was written.
+         *
+         * @return true if the job succeeded
+         */
+        public boolean isSuccessful() {
+
+            return error == null;
+
+        }
+
+        /**
+         * Returns the error that made the job fail.
+         *
+         * @return the error, or null if the job succeeded
+         */
+        public Throwable error() {
+
+            return error;
+
+        }
+
+        /**
+         * Returns the time spent to compute the panorama (or to take it from
+         * the cache).
+         *
+         * @return the time in milliseconds
+         */
+        public long computeMillis() {
+
+            return computeMillis;
+
+        }
+
+        /**
+         * Returns the time spent to render and write the image.
+         *
+         * @return the time in milliseconds
+         */
+        public long renderMillis() {
+
+            return renderMillis;
+
+        }
+
+        /**
+         * Returns the number of summits that are labeled in the panorama.
+         *
+         * @return number of summits, or -1 if the summits are not known
+         */
+        public int summits() {
+
+            return summits;
+
+        }
+
+        @Override
+        public String toString() {
+
+            if (error != null)
+                return job.output() + ": failed, " + error;
+            return String.format(Locale.ROOT,
+                    "%s: %dx%d %s, computed in %d ms, rendered in %d ms%s",
+                    job.output(), width, height, job.mode(), computeMillis,
+                    renderMillis,
+                    summits < 0 ? "" : ", " + summits + " summits");
+
+        }
+
+        private String toCsv() {
+
+            return String.format(Locale.ROOT,
+                    "\"%s\",%s,%d,%d,%d,%d,%s,\"%s\"",
+                    job.output().getPath().replace("\"", "\"\""), job.mode(),
+                    width, height, computeMillis, renderMillis,
+                    summits < 0 ? "" : Integer.toString(summits),
+                    error == null ? ""
+                            : String.valueOf(error).replace("\"", "\"\""));
+
+        }
+
+    }
+
+    // private functions
+
+    private Result run(BatchJob job) {
+
+        int width = job.parameters().width();
+        int height = job.parameters().height();
+        long start = System.nanoTime();
+        long computed = start;
+
+        try {
+            Panorama panorama = panorama(job.parameters());
+
+            width = panorama.parameters().width();
+            height = panorama.parameters().height();
+            computed = System.nanoTime();
+
+            PngWriter.write(panorama,
+                    job.mode().painter(new PanoramaLayers(panorama)),
+                    job.output());
+            int summits = labelizer == null ? -1
+                    : labelizer.labeledSummits(
+                            job.parameters().panoramaDisplayParameters(),
+                            panorama).size();
+
+            return new Result(job, width, height,
+                    (computed - start) / 1000000,
+                    (System.nanoTime() - computed) / 1000000, summits, null);
+
+        } catch (IOException | RuntimeException e) {
+            return new Result(job, width, height,
+                    (computed - start) / 1000000, 0, -1, e);
+        }
+
+    }
+
+    /**
+     * Returns the panorama of the given parameters: computes it (or takes it
+     * from the cache), or waits for the job that is already computing it.
+     */
+    private Panorama panorama(PanoramaUserParameters parameters) {
+
+        CompletableFuture<Panorama> f = new CompletableFuture<>();
+        CompletableFuture<Panorama> other = computing.putIfAbsent(parameters,
+                f);
+
+        if (other != null) {
+            try {
+                return other.join();
+            } catch (CompletionException e) {
+                throw e.getCause() instanceof RuntimeException
+                        ? (RuntimeException) e.getCause() : e;
+            }
+        }
+
+        try {
+            Panorama panorama = computer
+                    .computePanorama(parameters.panoramaParameters());
+
+            f.complete(panorama);
+            return panorama;
+
+        } catch (RuntimeException e) {
+            f.completeExceptionally(e);
+            throw e;
+        } finally {
+            // the next jobs take the panorama from the cache
+            computing.remove(parameters, f);
+        }
+
+    }
+
+    private static String argument(String[] args, int i) {
+
+        checkArgument(i < args.length, "missing value of " + args[i - 1]);
+        return args[i];
+
+    }
+
+}
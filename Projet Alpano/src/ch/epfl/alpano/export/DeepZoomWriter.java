@@ -0,0 +1,415 @@
+package ch.epfl.alpano.export;
+
+import static ch.epfl.alpano.Preconditions.checkArgument;
+
+import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Objects;
+import java.util.function.IntBinaryOperator;
+import java.util.stream.IntStream;
+
+import javax.imageio.ImageIO;
+
+import ch.epfl.alpano.Panorama;
+import ch.epfl.alpano.gui.ImagePainter;
+
+/**
+ * Writes the image of a panorama as a Deep Zoom (DZI) tile pyramid, for the
+ * web viewers that load only the visible tiles of very large images. The
+ * pyramid of an image named {@code name} consists of the descriptor
+ * {@code name.dzi} and of the directory {@code name_files}, which contains
+ * one directory per level (from 0, a single pixel, to the full resolution)
+ * with the PNG tiles {@code column_row.png} of {@value #TILE_SIZE} pixels
+ * (without overlap). Every level is half as large as the next one, its pixels
+ * are the averages of 2x2 pixels of the next level.
+ * <p>
+ * The image is rendered by bands of one line of tiles, which are written and
+ * downsampled as they stream through the levels, so only about two bands of
+ * the full resolution are held in the memory. The tiles of a band are
+ * encoded in parallel.
+ *
+ * @author Natal Willisch (262092)
+ *
+ */
+public final class DeepZoomWriter {
+
+    /**
+     * Width and height of the tiles
+     */
+    public static final int TILE_SIZE = 256;
+
+    // private constructor
+    private DeepZoomWriter() {
+    }
+
+    /**
+     * Writes the tile pyramid of the image of a panorama (existing files are
+     * overwritten, missing directories are created).
+     *
+     * @param panorama
+     *            the panorama
+     * @param painter
+     *            the image-painter (must be free of side effects)
+     * @param directory
+     *            directory where the pyramid is written
+     * @param name
+     *            name of the image
+     * @throws IOException
+     *             if a file can not be written
+     */
+    public static void write(Panorama panorama, ImagePainter painter,
+            File directory, String name) throws IOException {
+
+        Objects.requireNonNull(painter, "painter is null");
+
+        int width = panorama.parameters().width();
+        int height = panorama.parameters().height();
+        int maxLevel = maxLevel(width, height);
+
+        // the level directories are created first, with the directory itself
+        Level top = null;
+        for (int level = 0; level <= maxLevel; level++)
+            top = new Level(levelDirectory(directory, name, level),
+                    levelSize(width, maxLevel - level),
+                    levelSize(height, maxLevel - level), top);
+
+        writeDescriptor(new File(directory, name + ".dzi"), width, height);
+
+        int[] band = new int[TILE_SIZE * width];
+        for (int minY = 0; minY < height; minY += TILE_SIZE) {
+            int y0 = minY;
+            int rows = Math.min(TILE_SIZE, height - minY);
+
+            IntStream.range(0, rows).parallel().forEach(y -> {
+                for (int x = 0; x < width; x++)
+                    band[y * width + x] = painter.argbAt(x, y0 + y);
+            });
+            top.add(band, rows);
+        }
+        top.finish();
+
+    }
+
+    /**
+     * Updates the tiles of a tile pyramid (written by
+     * {@link #write(Panorama, ImagePainter, File, String)}) that contain a
+     * region of the image, after the colors of this region changed. The
+     * tiles of the full resolution are rendered again, the tiles of the lower
+     * levels are computed from the tiles of the next level.
+     *
+     * @param panorama
+     *            the panorama
+     * @param painter
+     *            the image-painter (must be free of side effects)
+     * @param directory
+     *            directory of the pyramid
+     * @param name
+     *            name of the image
+     * @param minX
+     *            first column of the region
+     * @param minY
+     *            first line of the region
+     * @param maxX
+     *            last column of the region
+     * @param maxY
+     *            last line of the region
+     * @throws IOException
+     *             if a tile can not be read or written
+     * @throws IllegalArgumentException
+     *             if the region is empty or not in the image
+     */
+    public static void update(Panorama panorama, ImagePainter painter,
+            File directory, String name, int minX, int minY, int maxX,
+            int maxY) throws IOException {
+
+        int width = panorama.parameters().width();
+        int height = panorama.parameters().height();
+        int maxLevel = maxLevel(width, height);
+
+        checkArgument(0 <= minX && minX <= maxX && maxX < width && 0 <= minY
+                && minY <= maxY && maxY < height, "invalid region");
+
+        File top = levelDirectory(directory, name, maxLevel);
+        forEachTile(minX / TILE_SIZE, minY / TILE_SIZE, maxX / TILE_SIZE,
+                maxY / TILE_SIZE, (column, row) -> {
+                    int x0 = column * TILE_SIZE;
+                    int y0 = row * TILE_SIZE;
+                    int w = Math.min(TILE_SIZE, width - x0);
+                    int h = Math.min(TILE_SIZE, height - y0);
+
+                    writeTile(tileFile(top, column, row), w, h,
+                            (x, y) -> painter.argbAt(x0 + x, y0 + y));
+                });
+
+        for (int level = maxLevel - 1; level >= 0; level--) {
+            int shift = maxLevel - level;
+            int w = levelSize(width, shift);
+            int h = levelSize(height, shift);
+            File children = levelDirectory(directory, name, level + 1);
+            File parents = levelDirectory(directory, name, level);
+
+            forEachTile((minX >> shift) / TILE_SIZE,
+                    (minY >> shift) / TILE_SIZE, (maxX >> shift) / TILE_SIZE,
+                    (maxY >> shift) / TILE_SIZE, (column, row) -> {
+                        int tileWidth = Math.min(TILE_SIZE,
+                                w - column * TILE_SIZE);
+                        int tileHeight = Math.min(TILE_SIZE,
+                                h - row * TILE_SIZE);
+                        int[] children2x2 = new int[4 * TILE_SIZE * TILE_SIZE];
+                        int sourceWidth = 0, sourceHeight = 0;
+
+                        for (int i = 0; i < 4; i++) {
+                            File child = tileFile(children,
+                                    2 * column + (i & 1), 2 * row + (i >> 1));
+                            if (!child.isFile())
+                                continue;
+
+                            BufferedImage image = ImageIO.read(child);
+                            if (image == null)
+                                throw new IOException("invalid tile " + child);
+
+                            int cw = image.getWidth(), ch = image.getHeight();
+                            image.getRGB(0, 0, cw, ch, children2x2,
+                                    (i >> 1) * TILE_SIZE * 2 * TILE_SIZE
+                                            + (i & 1) * TILE_SIZE,
+                                    2 * TILE_SIZE);
+                            sourceWidth = Math.max(sourceWidth,
+                                    (i & 1) * TILE_SIZE + cw);
+                            sourceHeight = Math.max(sourceHeight,
+                                    (i >> 1) * TILE_SIZE + ch);
+                        }
+
+                        int[] tile = new int[tileWidth * tileHeight];
+                        downsample(children2x2, 2 * TILE_SIZE, sourceWidth,
+                                sourceHeight, tile, tileWidth);
+                        writeTile(tileFile(parents, column, row), tileWidth,
+                                tileHeight, (x, y) -> tile[y * tileWidth + x]);
+                    });
+        }
+
+    }
+
+    // private functions
+
+    /**
+     * A level of the pyramid that receives its pixels by bands of lines,
+     * writes its tiles as soon as a line of tiles is complete and gives its
+     * downsampled lines to the next lower level.
+     */
+    private static final class Level {
+
+        private final File directory;
+        private final int width;
+        private final int height;
+        private final Level lower;
+        private final int[] pending;
+        private int rows = 0;
+        private int tileRow = 0;
+
+        Level(File directory, int width, int height, Level lower) {
+
+            this.directory = directory;
+            this.width = width;
+            this.height = height;
+            this.lower = lower;
+            pending = new int[TILE_SIZE * width];
+
+        }
+
+        /**
+         * Adds lines of pixels (their number is even, except for the last
+         * lines of the level).
+         */
+        void add(int[] lines, int count) throws IOException {
+
+            System.arraycopy(lines, 0, pending, rows * width, count * width);
+            rows += count;
+            if (rows == TILE_SIZE)
+                flush();
+
+        }
+
+        void finish() throws IOException {
+
+            if (rows > 0)
+                flush();
+            if (lower != null)
+                lower.finish();
+
+        }
+
+        private void flush() throws IOException {
+
+            int columns = (width + TILE_SIZE - 1) / TILE_SIZE;
+
+            forEachTile(0, tileRow, columns - 1, tileRow, (column, row) -> {
+                int x0 = column * TILE_SIZE;
+                int w = Math.min(TILE_SIZE, width - x0);
+
+                writeTile(tileFile(directory, column, row), w, rows,
+                        (x, y) -> pending[y * width + x0 + x]);
+            });
+
+            if (lower != null) {
+                int lowerRows = (rows + 1) / 2;
+                int[] lines = new int[lowerRows * lower.width];
+
+                downsample(pending, width, width, rows, lines, lower.width);
+                lower.add(lines, lowerRows);
+            }
+
+            tileRow++;
+            rows = 0;
+
+        }
+
+    }
+
+    /**
+     * A function of a tile that can throw an IOException.
+     */
+    @FunctionalInterface
+    private interface TileAction {
+
+        void apply(int column, int row) throws IOException;
+
+    }
+
+    /**
+     * Applies an action to all tiles of a rectangle in parallel.
+     */
+    private static void forEachTile(int minColumn, int minRow, int maxColumn,
+            int maxRow, TileAction action) throws IOException {
+
+        int columns = maxColumn - minColumn + 1;
+
+        try {
+            IntStream.range(0, columns * (maxRow - minRow + 1)).parallel()
+                    .forEach(i -> {
+                        try {
+                            action.apply(minColumn + i % columns,
+                                    minRow + i / columns);
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+
+    }
+
+    /**
+     * Averages the 2x2 pixels of an image (with premultiplied alpha, the
+     * missing pixels of the last column and line are not counted).
+     */
+    private static void downsample(int[] source, int sourceStride,
+            int sourceWidth, int sourceHeight, int[] target,
+            int targetStride) {
+
+        int targetWidth = (sourceWidth + 1) / 2;
+        int targetHeight = (sourceHeight + 1) / 2;
+
+        for (int y = 0; y < targetHeight; y++)
+            for (int x = 0; x < targetWidth; x++) {
+                int a = 0, r = 0, g = 0, b = 0, n = 0;
+
+                for (int sy = 2 * y; sy < Math.min(2 * y + 2,
+                        sourceHeight); sy++)
+                    for (int sx = 2 * x; sx < Math.min(2 * x + 2,
+                            sourceWidth); sx++) {
+                        int argb = source[sy * sourceStride + sx];
+                        int alpha = argb >>> 24;
+
+                        a += alpha;
+                        r += (argb >> 16 & 0xFF) * alpha;
+                        g += (argb >> 8 & 0xFF) * alpha;
+                        b += (argb & 0xFF) * alpha;
+                        n++;
+                    }
+
+                target[y * targetStride + x] = a == 0 ? 0
+                        : (a + n / 2) / n << 24
+                                | (r + a / 2) / a << 16
+                                | (g + a / 2) / a << 8
+                                | (b + a / 2) / a;
+            }
+
+    }
+
+    private static void writeTile(File file, int width, int height,
+            IntBinaryOperator argb) throws IOException {
+
+        try (OutputStream out = new BufferedOutputStream(
+                new FileOutputStream(file))) {
+            PngWriter.write(width, height, argb, out);
+        }
+
+    }
+
+    private static void writeDescriptor(File file, int width, int height)
+            throws IOException {
+
+        try (Writer out = new OutputStreamWriter(
+                new FileOutputStream(file), StandardCharsets.UTF_8)) {
+            out.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+                    + "<Image xmlns=\"http://schemas.microsoft.com/deepzoom/2008\""
+                    + " TileSize=\"" + TILE_SIZE + "\" Overlap=\"0\""
+                    + " Format=\"png\">\n" + "  <Size Width=\"" + width
+                    + "\" Height=\"" + height + "\"/>\n" + "</Image>\n");
+        }
+
+    }
+
+    /**
+     * Returns the directory of a level, which is created if necessary.
+     */
+    private static File levelDirectory(File directory, String name, int level)
+            throws IOException {
+
+        File d = new File(new File(directory, name + "_files"),
+                Integer.toString(level));
+
+        if (!d.isDirectory() && !d.mkdirs())
+            throw new IOException("can not create " + d);
+        return d;
+
+    }
+
+    private static File tileFile(File levelDirectory, int column, int row) {
+
+        return new File(levelDirectory, column + "_" + row + ".png");
+
+    }
+
+    /**
+     * Returns the highest level, where the largest side of the image
+     * becomes a single pixel after as many halvings.
+     */
+    private static int maxLevel(int width, int height) {
+
+        int size = Math.max(width, height);
+
+        return size == 1 ? 0 : 32 - Integer.numberOfLeadingZeros(size - 1);
+
+    }
+
+    /**
+     * Returns a side of the image halved (rounded up) the given number of
+     * times.
+     */
+    private static int levelSize(int size, int halvings) {
+
+        return (int) ((size + (1L << halvings) - 1) >> halvings);
+
+    }
+
+}
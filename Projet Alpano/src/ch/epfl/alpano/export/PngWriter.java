@@ -0,0 +1,242 @@
+package ch.epfl.alpano.export;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.function.IntBinaryOperator;
+import java.util.stream.IntStream;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import ch.epfl.alpano.Panorama;
+import ch.epfl.alpano.gui.ImagePainter;
+
+/**
+ * Writes the image of a panorama in a PNG file (8 bits RGBA) without javafx
+ * and without holding the whole image in the memory. The image is rendered
+ * and compressed by bands of {@value #BAND_HEIGHT} lines, several bands in
+ * parallel: every band is compressed independently in a raw deflate stream
+ * that ends on a byte boundary, so the compressed bands are simply written
+ * one after the other in the zlib stream of the image.
+ *
+ * @author Natal Willisch (262092)
+ *
+ */
+public final class PngWriter {
+
+    /**
+     * Number of lines of the bands compressed by one thread
+     */
+    public static final int BAND_HEIGHT = 16;
+
+    private static final byte[] SIGNATURE = { (byte) 0x89, 'P', 'N', 'G', '\r',
+            '\n', 0x1A, '\n' };
+    private static final int COLOR_TYPE_RGBA = 6;
+    private static final int FILTER_SUB = 1;
+    private static final int BYTES_PER_PIXEL = 4;
+
+    // private constructor
+    private PngWriter() {
+    }
+
+    /**
+     * Renders the image of a panorama in a PNG file (an existing file is
+     * overwritten).
+     *
+     * @param panorama
+     *            the panorama
+     * @param painter
+     *            the image-painter (must be free of side effects)
+     * @param file
+     *            the destination file
+     * @throws IOException
+     *             if the file can not be written
+     */
+    public static void write(Panorama panorama, ImagePainter painter,
+            File file) throws IOException {
+
+        try (OutputStream out = new FileOutputStream(file)) {
+            write(panorama, painter, out);
+        }
+
+    }
+
+    /**
+     * Renders the image of a panorama in a PNG stream. The stream is not
+     * closed.
+     *
+     * @param panorama
+     *            the panorama
+     * @param painter
+     *            the image-painter (must be free of side effects)
+     * @param out
+     *            the destination stream
+     * @throws IOException
+     *             if the stream can not be written
+     */
+    public static void write(Panorama panorama, ImagePainter painter,
+            OutputStream out) throws IOException {
+
+        write(panorama.parameters().width(), panorama.parameters().height(),
+                painter::argbAt, out);
+
+    }
+
+    /**
+     * Writes an image given by the packed ARGB colors of its pixels in a PNG
+     * stream. The stream is not closed.
+     *
+     * @param width
+     *            width of the image
+     * @param height
+     *            height of the image
+     * @param argb
+     *            function that gives the packed color of a pixel (must be
+     *            free of side effects)
+     * @param out
+     *            the destination stream
+     * @throws IOException
+     *             if the stream can not be written
+     */
+    static void write(int width, int height, IntBinaryOperator argb,
+            OutputStream out) throws IOException {
+
+        int bands = (height + BAND_HEIGHT - 1) / BAND_HEIGHT;
+        int inFlight = 2 * Runtime.getRuntime().availableProcessors();
+        Adler32 adler = new Adler32();
+        DataOutputStream data = new DataOutputStream(
+                new BufferedOutputStream(out, 1 << 16));
+
+        data.write(SIGNATURE);
+        writeChunk(data, "IHDR", ByteBuffer.allocate(13).putInt(width)
+                .putInt(height).put((byte) 8) // bits per component
+                .put((byte) COLOR_TYPE_RGBA).put((byte) 0) // deflate
+                .put((byte) 0) // adaptive filtering
+                .put((byte) 0) // no interlace
+                .array());
+
+        // zlib header: deflate, 32K window, default compression
+        writeChunk(data, "IDAT", new byte[] { 0x78, (byte) 0x9C });
+
+        for (int first = 0; first < bands; first += inFlight) {
+            int firstBand = first;
+            byte[][] raw = new byte[Math.min(inFlight, bands - first)][];
+            byte[][] compressed = new byte[raw.length][];
+
+            IntStream.range(0, raw.length).parallel().forEach(i -> {
+                int band = firstBand + i;
+
+                raw[i] = filteredBand(argb, width,
+                        band * BAND_HEIGHT,
+                        Math.min(height, (band + 1) * BAND_HEIGHT));
+                compressed[i] = deflate(raw[i], band == bands - 1);
+            });
+
+            for (int i = 0; i < raw.length; i++) {
+                adler.update(raw[i]);
+                writeChunk(data, "IDAT", compressed[i]);
+            }
+        }
+
+        int checksum = (int) adler.getValue();
+        writeChunk(data, "IDAT", new byte[] { (byte) (checksum >>> 24),
+                (byte) (checksum >>> 16), (byte) (checksum >>> 8),
+                (byte) checksum });
+        writeChunk(data, "IEND", new byte[0]);
+        data.flush();
+
+    }
+
+    // private functions
+
+    /**
+     * Renders the lines of a band and filters them with the filter "sub"
+     * (every byte minus the same byte of the pixel on its left), which only
+     * depends on the line itself.
+     */
+    private static byte[] filteredBand(IntBinaryOperator painter, int width,
+            int minY, int maxY) {
+
+        int lineSize = 1 + width * BYTES_PER_PIXEL;
+        byte[] band = new byte[(maxY - minY) * lineSize];
+
+        for (int y = minY; y < maxY; y++) {
+            int line = (y - minY) * lineSize;
+            int previous = 0;
+
+            band[line] = FILTER_SUB;
+            for (int x = 0; x < width; x++) {
+                int argb = painter.applyAsInt(x, y);
+                int rgba = argb << 8 | argb >>> 24;
+                int i = line + 1 + x * BYTES_PER_PIXEL;
+
+                band[i] = (byte) ((rgba >>> 24) - (previous >>> 24));
+                band[i + 1] = (byte) ((rgba >>> 16) - (previous >>> 16));
+                band[i + 2] = (byte) ((rgba >>> 8) - (previous >>> 8));
+                band[i + 3] = (byte) (rgba - previous);
+                previous = rgba;
+            }
+        }
+
+        return band;
+
+    }
+
+    /**
+     * Compresses a band in a raw deflate stream, that ends with an empty
+     * stored block (sync flush) for all bands but the last one, which ends
+     * the stream.
+     */
+    private static byte[] deflate(byte[] band, boolean last) {
+
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(
+                band.length / 4 + 64);
+        byte[] buffer = new byte[1 << 14];
+
+        try {
+            deflater.setInput(band);
+            if (last) {
+                deflater.finish();
+                while (!deflater.finished())
+                    out.write(buffer, 0, deflater.deflate(buffer));
+            } else {
+                int n;
+                do {
+                    n = deflater.deflate(buffer, 0, buffer.length,
+                            Deflater.SYNC_FLUSH);
+                    out.write(buffer, 0, n);
+                } while (n == buffer.length || !deflater.needsInput());
+            }
+        } finally {
+            deflater.end();
+        }
+
+        return out.toByteArray();
+
+    }
+
+    private static void writeChunk(DataOutputStream out, String type,
+            byte[] content) throws IOException {
+
+        byte[] name = type.getBytes(StandardCharsets.US_ASCII);
+        CRC32 crc = new CRC32();
+
+        crc.update(name);
+        crc.update(content);
+
+        out.writeInt(content.length);
+        out.write(name);
+        out.write(content);
+        out.writeInt((int) crc.getValue());
+
+    }
+
+}
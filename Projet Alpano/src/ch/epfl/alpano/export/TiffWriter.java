@@ -0,0 +1,139 @@
+package ch.epfl.alpano.export;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import ch.epfl.alpano.Panorama;
+import ch.epfl.alpano.gui.ChannelPainter;
+
+/**
+ * Writes a channel of a panorama in an uncompressed 16 bits grayscale TIFF
+ * file, line by line and without javafx. The values of the channel are
+ * rounded and restricted to the interval [0, 65535], so the channel should
+ * be scaled beforehand (for example the elevation in meters, or the distance
+ * divided by 10).
+ *
+ * @author Natal Willisch (262092)
+ *
+ */
+public final class TiffWriter {
+
+    private static final int HEADER_SIZE = 8;
+    private static final int ENTRY_COUNT = 9;
+    private static final int IFD_SIZE = 2 + 12 * ENTRY_COUNT + 4;
+    private static final int MAX_SAMPLE = 0xFFFF;
+
+    private static final short SHORT = 3;
+    private static final short LONG = 4;
+
+    // private constructor
+    private TiffWriter() {
+    }
+
+    /**
+     * Writes a channel of a panorama in a TIFF file (an existing file is
+     * overwritten).
+     *
+     * @param panorama
+     *            the panorama
+     * @param channel
+     *            the channel
+     * @param file
+     *            the destination file
+     * @throws IOException
+     *             if the file can not be written
+     * @throws IllegalArgumentException
+     *             if the image is too large for a TIFF file
+     */
+    public static void write(Panorama panorama, ChannelPainter channel,
+            File file) throws IOException {
+
+        try (OutputStream out = new FileOutputStream(file)) {
+            write(panorama, channel, out);
+        }
+
+    }
+
+    /**
+     * Writes a channel of a panorama in a TIFF stream. The stream is not
+     * closed.
+     *
+     * @param panorama
+     *            the panorama
+     * @param channel
+     *            the channel
+     * @param out
+     *            the destination stream
+     * @throws IOException
+     *             if the stream can not be written
+     * @throws IllegalArgumentException
+     *             if the image is too large for a TIFF file
+     */
+    public static void write(Panorama panorama, ChannelPainter channel,
+            OutputStream out) throws IOException {
+
+        int width = panorama.parameters().width();
+        int height = panorama.parameters().height();
+        long imageSize = 2L * width * height;
+
+        if (HEADER_SIZE + IFD_SIZE + imageSize > 0xFFFFFFFFL)
+            throw new IllegalArgumentException("image too large");
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE + IFD_SIZE)
+                .order(ByteOrder.LITTLE_ENDIAN);
+
+        header.put((byte) 'I').put((byte) 'I').putShort((short) 42)
+                .putInt(HEADER_SIZE);
+        header.putShort((short) ENTRY_COUNT);
+        entry(header, 256, LONG, width); // image width
+        entry(header, 257, LONG, height); // image length
+        entry(header, 258, SHORT, 16); // bits per sample
+        entry(header, 259, SHORT, 1); // no compression
+        entry(header, 262, SHORT, 1); // black is zero
+        entry(header, 273, LONG, HEADER_SIZE + IFD_SIZE); // strip offset
+        entry(header, 277, SHORT, 1); // samples per pixel
+        entry(header, 278, LONG, height); // rows per strip
+        entry(header, 279, LONG, (int) imageSize); // strip byte count
+        header.putInt(0); // no next IFD
+
+        OutputStream buffered = new BufferedOutputStream(out, 1 << 16);
+        ByteBuffer line = ByteBuffer.allocate(2 * width)
+                .order(ByteOrder.LITTLE_ENDIAN);
+
+        buffered.write(header.array());
+        for (int y = 0; y < height; y++) {
+            line.clear();
+            for (int x = 0; x < width; x++) {
+                double v = channel.valueAt(x, y);
+
+                line.putShort((short) (v > 0
+                        ? Math.min(MAX_SAMPLE, Math.round(v)) : 0));
+            }
+            buffered.write(line.array());
+        }
+        buffered.flush();
+
+    }
+
+    // private functions
+
+    /**
+     * Writes an IFD entry with one value (a short value is stored in the
+     * first two bytes of the value field).
+     */
+    private static void entry(ByteBuffer b, int tag, short type, int value) {
+
+        b.putShort((short) tag).putShort(type).putInt(1);
+        if (type == SHORT)
+            b.putShort((short) value).putShort((short) 0);
+        else
+            b.putInt(value);
+
+    }
+
+}
@@ -10,24 +10,22 @@ import java.util.List;
 import java.util.Locale;
 import java.util.function.BiConsumer;
 import java.util.function.Consumer;
-import java.util.function.Function;
 
 import javafx.collections.FXCollections;
 import ch.epfl.alpano.Azimuth;
 import ch.epfl.alpano.Panorama;
+import ch.epfl.alpano.PanoramaCache;
 import ch.epfl.alpano.dem.ContinuousElevationModel;
 import ch.epfl.alpano.dem.DiscreteElevationModel;
 import ch.epfl.alpano.dem.HgtDiscreteElevationModel;
-import ch.epfl.alpano.summit.GazetteerParser;
 import ch.epfl.alpano.summit.Summit;
+import ch.epfl.alpano.summit.SummitCache;
 import javafx.animation.FadeTransition;
 import javafx.animation.PauseTransition;
 import javafx.application.Application;
 import javafx.beans.binding.Bindings;
 import javafx.beans.binding.BooleanExpression;
-import javafx.beans.property.BooleanProperty;
 import javafx.beans.property.ObjectProperty;
-import javafx.beans.property.SimpleBooleanProperty;
 import javafx.beans.property.SimpleStringProperty;
 import javafx.beans.property.StringProperty;
 import javafx.scene.Cursor;
@@ -80,7 +78,9 @@ public final class Alpano extends Application {
     final static File HGT_FILE7 = new File("N45E009.hgt");
     final static File HGT_FILE8 = new File("N46E009.hgt");
     final static File SOMMETS_FILE = new File("alps.txt");
+    final static File SOMMETS_CACHE = new File("alps.summits");
     final static PanoramaUserParameters STANDARD_PAN = PredefinedPanoramas.ALPES_DU_JURA;
+    final static long CACHE_SIZE = 1L << 28; // bytes of cached panoramas
     private DiscreteElevationModel dem;
     StringProperty information = new SimpleStringProperty();
 
@@ -115,13 +115,18 @@ public final class Alpano extends Application {
 
         if (dem != null) {
 
-            List<Summit> summits = GazetteerParser
-                    .readSummitsFrom(SOMMETS_FILE);
+            List<Summit> summits = SummitCache.readSummitsFrom(SOMMETS_FILE,
+                    SOMMETS_CACHE);
             ContinuousElevationModel cem = new ContinuousElevationModel(dem);
             PanoramaParametersBean parameterBean = new PanoramaParametersBean(
                     STANDARD_PAN);
+            PanoramaCache cache = new PanoramaCache(
+                    PanoramaCache.fingerprint(HGT_FILE1, HGT_FILE2, HGT_FILE3,
+                            HGT_FILE4, HGT_FILE5, HGT_FILE6, HGT_FILE7,
+                            HGT_FILE8),
+                    CACHE_SIZE);
             PanoramaComputerBean computerBean = new PanoramaComputerBean(cem,
-                    summits);
+                    summits, cache);
 
             BorderPane root = new BorderPane(
                     panoPane(computerBean, parameterBean),
@@ -151,7 +156,6 @@ public final class Alpano extends Application {
     
     
     //menubar
-    @SuppressWarnings("unchecked")
     private MenuBar menu(PanoramaComputerBean computerBean,
             PanoramaParametersBean parameterBean) {
         Consumer<PanoramaUserParameters> set = param -> {
@@ -184,32 +188,19 @@ public final class Alpano extends Application {
 
         Menu menuMode = new Menu("View-Modes");
         ToggleGroup group = new ToggleGroup();
-        BiConsumer<String, Function<Panorama, ImagePainter>> addPainters = (s, p) -> {
-            RadioMenuItem item = new RadioMenuItem(s);
+        for (ViewMode mode : ViewMode.values()) {
+            RadioMenuItem item = new RadioMenuItem(mode.title());
             item.setToggleGroup(group);
-            item.setUserData(p);
-            item.setId(s);
+            item.setUserData(mode);
             menuMode.getItems().add(item);
-
-        };
-        addPainters.accept("Rainbow", p->ImagePainter.rainbow(p));
-        addPainters.accept("photorealistic", p->ImagePainter.photorealisticBlue(p));
-        addPainters.accept("historic", p->ImagePainter.photorealisticHisto(p));
-        addPainters.accept("night", p->ImagePainter.photorealisticNight(p));
-        addPainters.accept("gray", p->ImagePainter.grayish(p));
-        addPainters.accept("sketch", p->ImagePainter.draw(p));
-        addPainters.accept("lig. de hauteur (d = 200m)", p->ImagePainter.layer(p));
+        }
         
         group.getToggles().get(0).setSelected(true);
 
         group.selectedToggleProperty().addListener((t, old, updated) -> {
-            if (updated != null){
-                computerBean.labelColorProperty().setValue(((RadioMenuItem)updated).getId()
-                        =="night"?true:false);
-                computerBean.imagePainterProperty()
-                        .setValue((Function<Panorama, ImagePainter>) updated.getUserData());
-                
-            }
+            if (updated != null)
+                computerBean.viewModeProperty()
+                        .setValue((ViewMode) updated.getUserData());
         });
 
         bar.getMenus().addAll(menuLocation, menuMode);
@@ -259,6 +250,9 @@ public final class Alpano extends Application {
             panoView.setOnMouseMoved(e -> {
 
                 Panorama panorama = computerBean.getPanorama();
+                if (panorama == null || computerBean.isComputing())
+                    return;
+
                 PanoramaUserParameters parameters = computerBean
                         .getParameters();
 
@@ -283,6 +277,9 @@ public final class Alpano extends Application {
             panoView.setOnMouseClicked(e -> {
 
                 Panorama panorama = computerBean.getPanorama();
+                if (panorama == null || computerBean.isComputing())
+                    return;
+
                 PanoramaUserParameters parameters = computerBean
                         .getParameters();
 
@@ -339,43 +336,31 @@ public final class Alpano extends Application {
 
             BooleanExpression isNotEqual = computerBean.parametersProperty()
                     .isNotEqualTo(parameterBean.parametersProperty());
-            updateNotice.visibleProperty().bind(isNotEqual);
+            updateNotice.visibleProperty()
+                    .bind(isNotEqual.or(computerBean.computingProperty()));
             updateNotice.setCursor(Cursor.HAND);
 
             /*
-             * Set cursor to waiting during the calculation:
-             * 
-             * As the cursor sets only after an event, I must separate the
-             * cursor.set and the calculation in two different events (the
-             * alternative would be a thread for the calculation). It works
-             * properly, because the mousereleased-event fires always from the
-             * same position where the mouse is pressed down, even I would move
-             * the mouse out of the panorama-area, so after a mousepressed-event
-             * a mousereleased event has to follow. (But in the case the mouse
-             * sleeps on the mouse, there could be a long time between the two
-             * events).
-             * 
-             * Therefore (as always both event happen together), the
-             * booleanProperty waiting is not really necessary, but ensures a
-             * proper workflow if the behavior of the events-firing should ever
-             * change.
+             * The panorama is computed in the background, the notice stays
+             * visible (with a waiting cursor) until the computation is
+             * completed.
              */
 
-            BooleanProperty waiting = new SimpleBooleanProperty(false);
-            updateNotice.setOnMousePressed(e -> {
-                waiting.setValue(true);
-                updateText.setText("un moment...");
-                updateNotice.setCursor(Cursor.WAIT);
+            updateNotice.setOnMouseClicked(e -> {
+                parameterBean.flush();
+                computerBean.setParameters(
+                        parameterBean.parametersProperty().getValue());
             });
-            updateNotice.setOnMouseReleased(e -> {
-                if (waiting.getValue()) {
-                    computerBean.setParameters(
-                            parameterBean.parametersProperty().getValue());
-                    waiting.setValue(false);
+            computerBean.computingProperty().addListener((b, o, n) -> {
+                if (n) {
+                    updateText.setText("un moment...");
+                    updateNotice.setCursor(Cursor.WAIT);
+                } else {
+                    updateText.setText(
+                            "Les paramètres du panorama ont changé.\n"
+                                    + message);
+                    updateNotice.setCursor(Cursor.HAND);
                 }
-                updateText.setText(
-                        "Les paramètres du panorama ont changé.\n" + message);
-                updateNotice.setCursor(Cursor.HAND);
             });
         }
 
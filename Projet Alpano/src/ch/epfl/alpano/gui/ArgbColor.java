@@ -0,0 +1,287 @@
+package ch.epfl.alpano.gui;
+
+import static ch.epfl.alpano.Preconditions.checkArgument;
+
+import javafx.scene.paint.Color;
+
+/**
+ * Provides conversions of colors to and from packed ARGB integers (8 bits per
+ * component, alpha in the highest byte, not premultiplied). The conversions
+ * give the same values as the colors of javafx written in an image, but they
+ * never create a {@link Color}.
+ *
+ * @author Natal Willisch (262092)
+ *
+ */
+final class ArgbColor {
+
+    // private constructor
+    private ArgbColor() {
+    }
+
+    /**
+     * Packs the components of a color.
+     *
+     * @param red
+     *            red component (between 0 and 1)
+     * @param green
+     *            green component (between 0 and 1)
+     * @param blue
+     *            blue component (between 0 and 1)
+     * @param opacity
+     *            opacity (between 0 and 1)
+     * @return the packed color
+     * @throws IllegalArgumentException
+     *             if a component is out of range
+     */
+    static int rgb(double red, double green, double blue, double opacity) {
+
+        return component(opacity) << 24 | component(red) << 16
+                | component(green) << 8 | component(blue);
+
+    }
+
+    /**
+     * Packs a color given by its hue, saturation and brightness (the same as
+     * {@link Color#hsb(double, double, double, double)}).
+     *
+     * @param hue
+     *            hue in degrees
+     * @param saturation
+     *            saturation (between 0 and 1)
+     * @param brightness
+     *            brightness (between 0 and 1)
+     * @param opacity
+     *            opacity (between 0 and 1)
+     * @return the packed color
+     * @throws IllegalArgumentException
+     *             if a component is out of range
+     */
+    static int hsb(double hue, double saturation, double brightness,
+            double opacity) {
+
+        checkArgument(!(saturation < 0 || saturation > 1),
+                "saturation out of range");
+        checkArgument(!(brightness < 0 || brightness > 1),
+                "brightness out of range");
+
+        double h = (((hue % 360) + 360) % 360) / 360;
+
+        if (saturation == 0)
+            return rgb(brightness, brightness, brightness, opacity);
+
+        double sector = (h - Math.floor(h)) * 6;
+        double f = sector - Math.floor(sector);
+        double p = brightness * (1 - saturation);
+        double q = brightness * (1 - saturation * f);
+        double t = brightness * (1 - saturation * (1 - f));
+
+        switch ((int) sector) {
+        case 0:
+            return rgb(brightness, t, p, opacity);
+        case 1:
+            return rgb(q, brightness, p, opacity);
+        case 2:
+            return rgb(p, brightness, t, opacity);
+        case 3:
+            return rgb(p, q, brightness, opacity);
+        case 4:
+            return rgb(t, p, brightness, opacity);
+        case 5:
+            return rgb(brightness, p, q, opacity);
+        default:
+            return rgb(0, 0, 0, opacity);
+        }
+
+    }
+
+    /**
+     * Packs a gray (the same as {@link Color#gray(double, double)}).
+     *
+     * @param gray
+     *            brightness of the gray (between 0 and 1)
+     * @param opacity
+     *            opacity (between 0 and 1)
+     * @return the packed color
+     * @throws IllegalArgumentException
+     *             if a component is out of range
+     */
+    static int gray(double gray, double opacity) {
+
+        return rgb(gray, gray, gray, opacity);
+
+    }
+
+    /**
+     * Replaces the opacity of a packed color.
+     *
+     * @param argb
+     *            the packed color
+     * @param opacity
+     *            the new opacity (between 0 and 1)
+     * @return the packed color
+     * @throws IllegalArgumentException
+     *             if the opacity is out of range
+     */
+    static int withOpacity(int argb, double opacity) {
+
+        return component(opacity) << 24 | argb & 0xFFFFFF;
+
+    }
+
+    /**
+     * Packs a javafx color.
+     *
+     * @param color
+     *            the color
+     * @return the packed color
+     */
+    static int of(Color color) {
+
+        return rgb(color.getRed(), color.getGreen(), color.getBlue(),
+                color.getOpacity());
+
+    }
+
+    /**
+     * Unpacks a color in a javafx color.
+     *
+     * @param argb
+     *            the packed color
+     * @return the color
+     */
+    static Color toColor(int argb) {
+
+        return Color.rgb(argb >> 16 & 0xFF, argb >> 8 & 0xFF, argb & 0xFF,
+                (argb >>> 24) / 255.0);
+
+    }
+
+    /**
+     * Returns the opacity of a packed color.
+     *
+     * @param argb
+     *            the packed color
+     * @return the opacity (between 0 and 1)
+     */
+    static double opacity(int argb) {
+
+        return (argb >>> 24) / 255.0;
+
+    }
+
+    /**
+     * Derives a packed color (the same as
+     * {@link Color#deriveColor(double, double, double, double)}).
+     *
+     * @param argb
+     *            the packed color
+     * @param hueShift
+     *            hue shift in degrees
+     * @param saturationFactor
+     *            factor of the saturation
+     * @param brightnessFactor
+     *            factor of the brightness
+     * @param opacityFactor
+     *            factor of the opacity
+     * @return the derived color
+     */
+    static int derive(int argb, double hueShift, double saturationFactor,
+            double brightnessFactor, double opacityFactor) {
+
+        double r = unpack(argb >> 16), g = unpack(argb >> 8), b = unpack(argb);
+        double max = Math.max(r, Math.max(g, b));
+        double min = Math.min(r, Math.min(g, b));
+        double saturation = max != 0 ? (max - min) / max : 0;
+        double hue = 0;
+
+        if (saturation != 0) {
+            double redc = (max - r) / (max - min);
+            double greenc = (max - g) / (max - min);
+            double bluec = (max - b) / (max - min);
+
+            if (r == max)
+                hue = bluec - greenc;
+            else if (g == max)
+                hue = 2.0 + redc - bluec;
+            else
+                hue = 4.0 + greenc - redc;
+            hue = hue / 6.0;
+            if (hue < 0)
+                hue = hue + 1.0;
+        }
+
+        double brightness = max;
+        if (brightness == 0 && brightnessFactor > 1.0)
+            brightness = 0.05;
+
+        return hsb((((hue * 360 + hueShift) % 360) + 360) % 360,
+                clamp(saturation * saturationFactor),
+                clamp(brightness * brightnessFactor),
+                clamp(unpack(argb >> 24) * opacityFactor));
+
+    }
+
+    /**
+     * Interpolates two packed colors (the same as
+     * {@link Color#interpolate(Color, double)}).
+     *
+     * @param from
+     *            the packed color at t = 0
+     * @param to
+     *            the packed color at t = 1
+     * @param t
+     *            position between the two colors
+     * @return the interpolated color
+     */
+    static int interpolate(int from, int to, double t) {
+
+        if (t <= 0)
+            return from;
+        if (t >= 1)
+            return to;
+
+        float ft = (float) t;
+        int argb = 0;
+
+        for (int shift = 0; shift < 32; shift += 8) {
+            float a = unpack(from >> shift), b = unpack(to >> shift);
+
+            argb |= component(a + (b - a) * ft) << shift;
+        }
+
+        return argb;
+
+    }
+
+    // private functions
+
+    /**
+     * Returns the component of the lowest byte as javafx stores it.
+     */
+    private static float unpack(int v) {
+
+        return (float) ((v & 0xFF) / 255.0);
+
+    }
+
+    private static double clamp(double v) {
+
+        return Math.max(Math.min(v, 1.0), 0.0);
+
+    }
+
+    /**
+     * Transforms a component in a byte. The component is first rounded to a
+     * float, as javafx colors store their components as floats (like javafx,
+     * NaN is accepted and becomes 0).
+     */
+    private static int component(double v) {
+
+        checkArgument(!(v < 0 || v > 1), "color component out of range");
+
+        return (int) Math.round((float) v * 255.0);
+
+    }
+
+}
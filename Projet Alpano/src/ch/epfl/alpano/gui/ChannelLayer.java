@@ -0,0 +1,295 @@
+package ch.epfl.alpano.gui;
+
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+
+import java.util.Objects;
+import java.util.function.DoubleUnaryOperator;
+import java.util.stream.IntStream;
+
+import ch.epfl.alpano.Math2;
+import ch.epfl.alpano.Panorama;
+
+/**
+ * A materialized channel: the values of a ChannelPainter over a whole
+ * panorama, stored line by line in a table of doubles. The transformations
+ * of a layer (add, mul, clamped, ...) are applied to the whole table at once
+ * and give new layers, so a layer used by several other channels is only
+ * computed once. The values are not rounded between the transformations, so
+ * a layer gives exactly the values of the equivalent ChannelPainter.
+ *
+ * @author Natal Willisch (262092)
+ *
+ */
+public final class ChannelLayer implements ChannelPainter {
+
+    private final int width;
+    private final int height;
+    private final double[] values;
+
+    // private constructor
+    private ChannelLayer(int width, int height, double[] values) {
+
+        this.width = width;
+        this.height = height;
+        this.values = values;
+
+    }
+
+    /**
+     * Returns the layer of a channel of a panorama.
+     *
+     * @param panorama
+     *            the panorama
+     * @param channel
+     *            the channel
+     * @return the layer
+     * @throws IllegalStateException
+     *             if the channel is not computed
+     */
+    public static ChannelLayer of(Panorama panorama, Panorama.Channel channel) {
+
+        float[] samples = panorama.channelValues(channel);
+        double[] values = new double[samples.length];
+
+        for (int i = 0; i < values.length; i++)
+            values[i] = samples[i];
+        return new ChannelLayer(panorama.parameters().width(),
+                panorama.parameters().height(), values);
+
+    }
+
+    /**
+     * Evaluates a ChannelPainter once for every sample of a panorama (the
+     * lines are evaluated in parallel, so the painter must be free of side
+     * effects).
+     *
+     * @param panorama
+     *            the panorama
+     * @param painter
+     *            the ChannelPainter
+     * @return the layer
+     */
+    public static ChannelLayer materialize(Panorama panorama,
+            ChannelPainter painter) {
+
+        Objects.requireNonNull(painter, "painter is null");
+
+        int width = panorama.parameters().width();
+        int height = panorama.parameters().height();
+        double[] values = new double[width * height];
+
+        IntStream.range(0, height).parallel().forEach(y -> {
+            for (int x = 0; x < width; x++)
+                values[y * width + x] = painter.valueAt(x, y);
+        });
+
+        return new ChannelLayer(width, height, values);
+
+    }
+
+    /**
+     * Returns the layer of the distance between every sample and its
+     * neighbor that is the most far away from the observer (the same as
+     * {@link ChannelPainter#maxDistanceToNeighbors(Panorama)}). The interior
+     * of the panorama is computed as a stencil over the table of the
+     * distances (the lines in parallel), the borders, where some neighbors
+     * are missing and count as 0, are computed separately.
+     *
+     * @param panorama
+     *            the panorama
+     * @return the layer
+     */
+    public static ChannelLayer maxDistanceToNeighbors(Panorama panorama) {
+
+        int width = panorama.parameters().width();
+        int height = panorama.parameters().height();
+        float[] d = panorama.channelValues(Panorama.Channel.DISTANCE);
+        double[] r = new double[d.length];
+
+        IntStream.range(1, height - 1).parallel().forEach(y -> {
+            int end = y * width + width - 1;
+
+            for (int i = y * width + 1; i < end; i++)
+                r[i] = max(max(d[i - 1], d[i + 1]),
+                        max(d[i - width], d[i + width])) - d[i];
+        });
+
+        for (int x = 0; x < width; x++) {
+            r[x] = maxDistanceToNeighbors(d, width, height, x, 0);
+            r[(height - 1) * width + x] = maxDistanceToNeighbors(d, width,
+                    height, x, height - 1);
+        }
+        for (int y = 1; y < height - 1; y++) {
+            r[y * width] = maxDistanceToNeighbors(d, width, height, 0, y);
+            r[y * width + width - 1] = maxDistanceToNeighbors(d, width,
+                    height, width - 1, y);
+        }
+
+        return new ChannelLayer(width, height, r);
+
+    }
+
+    /**
+     * Returns the width of the layer.
+     *
+     * @return width
+     */
+    public int width() {
+
+        return width;
+
+    }
+
+    /**
+     * Returns the height of the layer.
+     *
+     * @return height
+     */
+    public int height() {
+
+        return height;
+
+    }
+
+    /**
+     * @throws IndexOutOfBoundsException
+     *             if the position is not in the layer
+     */
+    @Override
+    public double valueAt(int x, int y) {
+
+        if (x < 0 || x >= width || y < 0 || y >= height)
+            throw new IndexOutOfBoundsException("position out of the layer");
+
+        return values[y * width + x];
+
+    }
+
+    @Override
+    public ChannelLayer materialize(Panorama panorama) {
+
+        if (panorama.parameters().width() == width
+                && panorama.parameters().height() == height)
+            return this;
+        return ChannelPainter.super.materialize(panorama);
+
+    }
+
+    @Override
+    public ChannelLayer add(double val) {
+
+        double[] r = new double[values.length];
+
+        for (int i = 0; i < r.length; i++)
+            r[i] = values[i] + val;
+        return with(r);
+
+    }
+
+    @Override
+    public ChannelLayer sub(double val) {
+
+        double[] r = new double[values.length];
+
+        for (int i = 0; i < r.length; i++)
+            r[i] = values[i] - val;
+        return with(r);
+
+    }
+
+    @Override
+    public ChannelLayer mul(double val) {
+
+        double[] r = new double[values.length];
+
+        for (int i = 0; i < r.length; i++)
+            r[i] = values[i] * val;
+        return with(r);
+
+    }
+
+    @Override
+    public ChannelLayer div(double val) {
+
+        double[] r = new double[values.length];
+
+        for (int i = 0; i < r.length; i++)
+            r[i] = values[i] / val;
+        return with(r);
+
+    }
+
+    @Override
+    public ChannelLayer map(DoubleUnaryOperator f) {
+
+        double[] r = new double[values.length];
+
+        for (int i = 0; i < r.length; i++)
+            r[i] = f.applyAsDouble(values[i]);
+        return with(r);
+
+    }
+
+    @Override
+    public ChannelLayer inverted() {
+
+        double[] r = new double[values.length];
+
+        for (int i = 0; i < r.length; i++)
+            r[i] = 1 - values[i];
+        return with(r);
+
+    }
+
+    @Override
+    public ChannelLayer clamped() {
+
+        double[] r = new double[values.length];
+
+        for (int i = 0; i < r.length; i++)
+            r[i] = max(0, min(values[i], 1));
+        return with(r);
+
+    }
+
+    @Override
+    public ChannelLayer cycling() {
+
+        double[] r = new double[values.length];
+
+        for (int i = 0; i < r.length; i++)
+            r[i] = Math2.floorMod(values[i], 1);
+        return with(r);
+
+    }
+
+    // private functions
+
+    /**
+     * Returns the maximal distance to the neighbors of a sample on the border
+     * of a table of distances, the missing neighbors counting as 0.
+     */
+    private static float maxDistanceToNeighbors(float[] d, int width,
+            int height, int x, int y) {
+
+        int i = y * width + x;
+        float left = x > 0 ? d[i - 1] : 0;
+        float right = x < width - 1 ? d[i + 1] : 0;
+        float top = y > 0 ? d[i - width] : 0;
+        float bottom = y < height - 1 ? d[i + width] : 0;
+
+        return max(max(left, right), max(top, bottom)) - d[i];
+
+    }
+
+    /**
+     * Returns a layer of the same size with other values.
+     */
+    private ChannelLayer with(double[] values) {
+
+        return new ChannelLayer(width, height, values);
+
+    }
+
+}
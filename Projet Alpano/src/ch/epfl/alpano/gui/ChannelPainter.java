@@ -64,6 +64,21 @@ public interface ChannelPainter {
 
     }
 
+    /**
+     * Evaluates the ChannelPainter once for every sample of a panorama (see
+     * {@link ChannelLayer}). The transformations of the returned layer are
+     * applied to all samples at once.
+     * 
+     * @param panorama
+     *            the panorama
+     * @return the materialized channel
+     */
+    public default ChannelLayer materialize(Panorama panorama) {
+
+        return ChannelLayer.materialize(panorama, this);
+
+    }
+
     /**
      * Creates a ChannelPainter that adds a fix value to the output of the
      * Channel-painter to which this function is applied.
@@ -176,88 +191,33 @@ public interface ChannelPainter {
      * @return ChannelPainter
      */
     public static ChannelPainter photorealistic(Panorama panorama) {
-        IntUnaryOperator x_cut = x -> max(0,
-                min(x, panorama.parameters().width() - 1));
-        IntUnaryOperator y_cut = y -> max(0,
-                min(y, panorama.parameters().height() - 1));
-        BiFunction<Integer, Integer, Float> slopF = panorama::slopeAt;
-        BiFunction<Integer, Integer, Float> elevF = panorama::elevationAt;
-
-        final double flat = 0.00001;
-
-        return (x, y) -> {
-
-            double slope = slopF.apply(x, y);
-            double elevation = elevF.apply(x, y);
-
-            double facteur = (panorama.parameters().width()
-                    / panorama.parameters().horizontalFieldOfView()
-                    / panorama.distanceAt(x, y) * 1000);
-
-            int vFactor = (int) (Math
-                    .sqrt((panorama.parameters().altitudeForY(y) / Math2.PI2)
-                            * facteur))
-                    + 1;
-            int hFactor = (int) facteur + 1;
-
-            IntUnaryOperator checkAround = (multi) -> {
-                int xLeft = x_cut.applyAsInt(x - multi * hFactor);
-                int xRight = x_cut.applyAsInt(x + multi * hFactor);
-                int yTop = y_cut.applyAsInt(y - multi * vFactor);
-                int yButtom = y_cut.applyAsInt(y + multi * vFactor);
-                int count = 0;
-
-                if (slopF.apply(xLeft, y) < flat
-                        && elevF.apply(xLeft, y) == elevation)
-                    count++;
-                if (slopF.apply(xLeft, yTop) < flat
-                        && elevF.apply(xLeft, yTop) == elevation)
-                    count++;
-                if (slopF.apply(xLeft, yButtom) < flat
-                        && elevF.apply(xLeft, yButtom) == elevation)
-                    count++;
-                if (slopF.apply(x, yTop) < flat
-                        && elevF.apply(x, yTop) == elevation)
-                    count++;
-                if (slopF.apply(x, yButtom) < flat
-                        && elevF.apply(x, yButtom) == elevation)
-                    count++;
-                if (slopF.apply(xRight, yTop) < flat
-                        && elevF.apply(xRight, yTop) == elevation)
-                    count++;
-                if (slopF.apply(xRight, yButtom) < flat
-                        && elevF.apply(xRight, yButtom) == elevation)
-                    count++;
-                if (slopF.apply(xRight, y) < flat
-                        && elevF.apply(xRight, y) == elevation)
-                    count++;
-
-                return count;
-            };
-
-            if (snow1.test(elevation, slope))
-                return 0.5;
 
-            else if (slope < flat
-                    && slopF.apply(x_cut.applyAsInt(x + 1), y) < flat
-                    && slopF.apply(x_cut.applyAsInt(x - 1), y) < flat
-                    && (slopF.apply(x, y_cut.applyAsInt(y + 1)) < flat || slopF
-                            .apply(x, y_cut.applyAsInt(y - 1)) < flat)) {
+        return photorealistic(SurfaceMask.of(panorama));
 
-                int count = checkAround.applyAsInt(1);
+    }
 
-                if (count == 8)
-                    return 0.56;
-                else if (count > 3) {
-                    count = checkAround.applyAsInt(3);
+    /**
+     * Choose a realistic colors depending on the surfaces of a panorama.
+     * 
+     * @param mask
+     *            the surfaces of a Panorama
+     * @return ChannelPainter
+     */
+    public static ChannelPainter photorealistic(SurfaceMask mask) {
 
-                    if (count > 2)
-                        return 0.55;
-                }
+        return (x, y) -> {
+            switch (mask.surfaceAt(x, y)) {
+            case SurfaceMask.SNOW:
+                return 0.5;
+            case SurfaceMask.WATER:
+                return 0.56;
+            case SurfaceMask.SHORE:
+                return 0.55;
+            default:
+                return 0.35;
             }
-
-            return 0.35;
         };
+
     }
 
     /**
@@ -271,19 +231,38 @@ public interface ChannelPainter {
      */
     default ChannelPainter fade(Panorama panorama) {
 
+        return fade(panorama, SurfaceMask.of(panorama));
+
+    }
+
+    /**
+     * changes the saturation depending of the properties of the point in the
+     * Panorama (see {@link #fade(Panorama)}), the surfaces being already
+     * classified.
+     * 
+     * @param panorama
+     *            a Panorama
+     * @param mask
+     *            the surfaces of the Panorama
+     * @return a ChannelPainter
+     */
+    default ChannelPainter fade(Panorama panorama, SurfaceMask mask) {
+
         return (x, y) -> {
-            double slope = panorama.slopeAt(x, y);
             double elevation = panorama.elevationAt(x, y);
             double value = this.valueAt(x, y);
 
-            if (snow1.test(elevation, slope) || snow2.test(elevation, slope))
+            switch (mask.surfaceAt(x, y)) {
+            case SurfaceMask.SNOW:
+            case SurfaceMask.FIRN:
                 return 0;
-            if (stone.test(elevation, slope))
+            case SurfaceMask.ROCK:
                 return Math.max(0, value * Math.pow(1 - elevation / 6000, 1.5))
                         * 0.5;
-
-            return Math.max(0, value * Math.pow(1 - elevation / 6000, 1.5))
-                    * 0.9;
+            default:
+                return Math.max(0, value * Math.pow(1 - elevation / 6000, 1.5))
+                        * 0.9;
+            }
         };
     }
 
@@ -298,15 +277,31 @@ public interface ChannelPainter {
      */
     default ChannelPainter snowB(Panorama panorama) {
 
+        return snowB(SurfaceMask.of(panorama));
+
+    }
+
+    /**
+     * Changes the brightness depending of the surfaces of a Panorama (see
+     * {@link #snowB(Panorama)}).
+     * 
+     * @param mask
+     *            the surfaces of a Panorama
+     * @return a ChannelPainter
+     */
+    default ChannelPainter snowB(SurfaceMask mask) {
+
         return (x, y) -> {
-            double slope = panorama.slopeAt(x, y);
-            double elevation = panorama.elevationAt(x, y);
             double value = this.valueAt(x, y);
-            if (snow1.test(elevation, slope))
+
+            switch (mask.surfaceAt(x, y)) {
+            case SurfaceMask.SNOW:
                 return value * 1.4;
-            if (snow2.test(elevation, slope))
+            case SurfaceMask.FIRN:
                 return value * 1.35;
-            return value * 0.8;
+            default:
+                return value * 0.8;
+            }
         };
     }
 
@@ -317,17 +312,14 @@ public interface ChannelPainter {
     /**
      * Criteria for snow areas. (higher 2800m)
      */
-    static BiPredicate<Double, Double> snow1 = (elevation,
-            slope) -> elevation > 2800 && slope < 1 && slope > 0.8;
+    static BiPredicate<Double, Double> snow1 = SurfaceMask::isSnow;
     /**
      * Criteria for snow areas. (higher 2500m)
      */
-    static BiPredicate<Double, Double> snow2 = (elevation,
-            slope) -> elevation > 2500 && slope < 1 && slope > 0.9;
+    static BiPredicate<Double, Double> snow2 = SurfaceMask::isFirn;
     /**
      * Criteria for stone areas.
      */
-    static BiPredicate<Double, Double> stone = (elevation,
-            slope) -> slope > 0.8 && elevation > 1900 || slope > 0.9;
+    static BiPredicate<Double, Double> stone = SurfaceMask::isStone;
 
 }
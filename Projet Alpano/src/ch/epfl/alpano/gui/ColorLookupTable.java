@@ -0,0 +1,114 @@
+package ch.epfl.alpano.gui;
+
+import static ch.epfl.alpano.Preconditions.checkArgument;
+
+import ch.epfl.alpano.Math2;
+
+/**
+ * A table of packed ARGB colors (see {@link ImagePainter#argbAt}) indexed by
+ * quantised hue, saturation and brightness. The colors are converted from
+ * HSB once, when the table is constructed, so a painter using the table only
+ * has to quantise its channels and load the color from the table. The hues
+ * are quantised in {@code hueSteps} equal steps around the circle, the
+ * saturations and brightnesses in {@code steps} values between 0 and 1 (both
+ * included).
+ *
+ * @author Natal Willisch (262092)
+ *
+ */
+public final class ColorLookupTable {
+
+    private final int hueSteps;
+    private final int saturationSteps;
+    private final int brightnessSteps;
+    private final int[] colors;
+
+    /**
+     * Constructs a table.
+     *
+     * @param hueSteps
+     *            number of hues
+     * @param saturationSteps
+     *            number of saturations (at least 2)
+     * @param brightnessSteps
+     *            number of brightnesses (at least 2)
+     * @throws IllegalArgumentException
+     *             if a number of steps is too small or the table would be too
+     *             large
+     */
+    public ColorLookupTable(int hueSteps, int saturationSteps,
+            int brightnessSteps) {
+
+        checkArgument(hueSteps > 0, "hueSteps is not positive");
+        checkArgument(saturationSteps > 1 && brightnessSteps > 1,
+                "less than 2 steps");
+        checkArgument((long) hueSteps * saturationSteps
+                * brightnessSteps <= Integer.MAX_VALUE, "table too large");
+
+        this.hueSteps = hueSteps;
+        this.saturationSteps = saturationSteps;
+        this.brightnessSteps = brightnessSteps;
+        colors = new int[hueSteps * saturationSteps * brightnessSteps];
+
+        for (int h = 0; h < hueSteps; h++)
+            for (int s = 0; s < saturationSteps; s++)
+                for (int b = 0; b < brightnessSteps; b++)
+                    colors[index(h, s, b)] = ArgbColor.hsb(
+                            360.0 * h / hueSteps,
+                            (double) s / (saturationSteps - 1),
+                            (double) b / (brightnessSteps - 1), 1);
+
+    }
+
+    /**
+     * Returns the packed color of the table closest to the given color.
+     *
+     * @param hue
+     *            hue in degrees
+     * @param saturation
+     *            saturation (between 0 and 1)
+     * @param brightness
+     *            brightness (between 0 and 1)
+     * @param opacity
+     *            opacity (between 0 and 1), it is not quantised
+     * @return the packed color
+     * @throws IllegalArgumentException
+     *             if a component is out of range
+     */
+    public int argb(double hue, double saturation, double brightness,
+            double opacity) {
+
+        checkArgument(!(saturation < 0 || saturation > 1),
+                "saturation out of range");
+        checkArgument(!(brightness < 0 || brightness > 1),
+                "brightness out of range");
+
+        int h = (int) Math.round(Math2.floorMod(hue, 360) / 360 * hueSteps);
+        int s = (int) Math.round(saturation * (saturationSteps - 1));
+        int b = (int) Math.round(brightness * (brightnessSteps - 1));
+
+        return ArgbColor.withOpacity(
+                colors[index(h == hueSteps ? 0 : h, s, b)], opacity);
+
+    }
+
+    /**
+     * Returns the number of colors of the table.
+     *
+     * @return number of colors
+     */
+    public int size() {
+
+        return colors.length;
+
+    }
+
+    // private functions
+
+    private int index(int h, int s, int b) {
+
+        return (h * saturationSteps + s) * brightnessSteps + b;
+
+    }
+
+}
@@ -0,0 +1,166 @@
+package ch.epfl.alpano.gui;
+
+import java.util.Arrays;
+import java.util.function.IntUnaryOperator;
+import java.util.stream.IntStream;
+
+import ch.epfl.alpano.Panorama;
+import javafx.scene.paint.Color;
+
+/**
+ * A materialized image: the packed ARGB colors (see
+ * {@link ImagePainter#argbAt}) of an ImagePainter over a whole panorama,
+ * stored line by line in a table. The color gradings and the sky of a layer
+ * are applied to the whole table at once and give new layers, so the
+ * painter of a layer is only evaluated once per pixel.
+ *
+ * @author Natal Willisch (262092)
+ *
+ */
+public final class ImageLayer implements ImagePainter {
+
+    private final int width;
+    private final int height;
+    private final int[] pixels;
+
+    // private constructor
+    private ImageLayer(int width, int height, int[] pixels) {
+
+        this.width = width;
+        this.height = height;
+        this.pixels = pixels;
+
+    }
+
+    /**
+     * Evaluates an ImagePainter once for every pixel of a panorama (see
+     * {@link PanoramaRenderer#renderArgb}).
+     *
+     * @param panorama
+     *            the panorama
+     * @param painter
+     *            the ImagePainter
+     * @return the layer
+     */
+    public static ImageLayer materialize(Panorama panorama,
+            ImagePainter painter) {
+
+        return new ImageLayer(panorama.parameters().width(),
+                panorama.parameters().height(), render(panorama, painter));
+
+    }
+
+    /**
+     * Renders the packed colors of all pixels of a panorama, by bands of
+     * {@value PanoramaRenderer#BAND_HEIGHT} lines in parallel (see
+     * {@link PanoramaRenderer#renderArgb}, this class does not use javafx to
+     * render).
+     *
+     * @param panorama
+     *            the panorama
+     * @param painter
+     *            the ImagePainter
+     * @return table of the packed colors
+     */
+    static int[] render(Panorama panorama, ImagePainter painter) {
+
+        int width = panorama.parameters().width();
+        int height = panorama.parameters().height();
+        int bandHeight = PanoramaRenderer.BAND_HEIGHT;
+        int[] pixels = new int[width * height];
+        int bands = (height + bandHeight - 1) / bandHeight;
+
+        IntStream.range(0, bands).parallel().forEach(band -> {
+            int maxY = Math.min(height, (band + 1) * bandHeight);
+
+            for (int y = band * bandHeight; y < maxY; y++)
+                for (int x = 0; x < width; x++)
+                    pixels[y * width + x] = painter.argbAt(x, y);
+        });
+
+        return pixels;
+
+    }
+
+    /**
+     * Returns the width of the layer.
+     *
+     * @return width
+     */
+    public int width() {
+
+        return width;
+
+    }
+
+    /**
+     * Returns the height of the layer.
+     *
+     * @return height
+     */
+    public int height() {
+
+        return height;
+
+    }
+
+    @Override
+    public Color colorAt(int x, int y) {
+
+        return ArgbColor.toColor(argbAt(x, y));
+
+    }
+
+    /**
+     * @throws IndexOutOfBoundsException
+     *             if the position is not in the layer
+     */
+    @Override
+    public int argbAt(int x, int y) {
+
+        if (x < 0 || x >= width || y < 0 || y >= height)
+            throw new IndexOutOfBoundsException("position out of the layer");
+
+        return pixels[y * width + x];
+
+    }
+
+    @Override
+    public ImageLayer materialize(Panorama panorama) {
+
+        if (panorama.parameters().width() == width
+                && panorama.parameters().height() == height)
+            return this;
+        return ImagePainter.super.materialize(panorama);
+
+    }
+
+    /**
+     * Transforms all packed colors of the layer according to the given
+     * function (the colors are transformed in parallel).
+     *
+     * @param f
+     *            function of the packed colors
+     * @return the transformed layer
+     */
+    public ImageLayer map(IntUnaryOperator f) {
+
+        int[] r = new int[pixels.length];
+
+        Arrays.parallelSetAll(r, i -> f.applyAsInt(pixels[i]));
+        return new ImageLayer(width, height, r);
+
+    }
+
+    @Override
+    public ImageLayer sky(int mode) {
+
+        ImagePainter sky = ImagePainter.super.sky(mode);
+        int[] r = new int[pixels.length];
+
+        Arrays.parallelSetAll(r, i -> sky.argbAt(i % width, i / width));
+        return new ImageLayer(width, height, r);
+
+    }
+
+}
@@ -1,14 +1,17 @@
 package ch.epfl.alpano.gui;
 
-import static java.lang.Math.max;
+import java.util.function.IntBinaryOperator;
 
+import ch.epfl.alpano.Math2;
 import ch.epfl.alpano.Panorama;
 import javafx.scene.paint.Color;
 
 /**
  * This functional interface represents a image painter. the image painter is
  * there to associate a color to a (x/y)-position. The interface offers overs
- * static functions to create those Image-Painters.
+ * static functions to create those Image-Painters. The colors are also
+ * available as packed ARGB integers, and the painters created by this
+ * interface compute them without creating any {@link Color}.
  * 
  * @author Natal Willisch (262092)
  *
@@ -27,6 +30,67 @@ public interface ImagePainter {
      */
     public Color colorAt(int x, int y);
 
+    /**
+     * Returns the color depending on the coordinates as a packed ARGB integer
+     * (8 bits per component, alpha in the highest byte).
+     * 
+     * @param x
+     *            horizontal position
+     * @param y
+     *            vertical position
+     * @return packed color
+     */
+    public default int argbAt(int x, int y) {
+
+        return ArgbColor.of(colorAt(x, y));
+
+    }
+
+    /**
+     * Evaluates the ImagePainter once for every pixel of a panorama (see
+     * {@link ImageLayer}). The color gradings of the returned layer are
+     * applied to all pixels at once.
+     * 
+     * @param panorama
+     *            the panorama
+     * @return the materialized image
+     */
+    public default ImageLayer materialize(Panorama panorama) {
+
+        return ImageLayer.materialize(panorama, this);
+
+    }
+
+    /**
+     * Returns a ImagePainter from a function that gives the packed ARGB color
+     * of a position.
+     * 
+     * @param argb
+     *            function that gives the packed color of a position
+     * @return a ImagePainter
+     */
+    public static ImagePainter argb(IntBinaryOperator argb) {
+
+        return new ImagePainter() {
+
+            @Override
+            public Color colorAt(int x, int y) {
+
+                return ArgbColor.toColor(argb.applyAsInt(x, y));
+
+            }
+
+            @Override
+            public int argbAt(int x, int y) {
+
+                return argb.applyAsInt(x, y);
+
+            }
+
+        };
+
+    }
+
     /**
      * Returns a ImagePainter for colored pictures.
      * 
@@ -44,8 +108,35 @@ public interface ImagePainter {
             ChannelPainter saturation, ChannelPainter brightness,
             ChannelPainter opacity) {
 
-        return (x, y) -> Color.hsb(hue.valueAt(x, y), saturation.valueAt(x, y),
-                brightness.valueAt(x, y), opacity.valueAt(x, y));
+        return argb((x, y) -> ArgbColor.hsb(hue.valueAt(x, y),
+                saturation.valueAt(x, y), brightness.valueAt(x, y),
+                opacity.valueAt(x, y)));
+
+    }
+
+    /**
+     * Returns a ImagePainter for colored pictures whose colors are quantised
+     * and read from a table (see {@link ColorLookupTable}).
+     * 
+     * @param table
+     *            table of the colors
+     * @param hue
+     *            hue (basic/pure color) of the color
+     * @param saturation
+     *            intensity of the color
+     * @param brightness
+     *            brightness of the color
+     * @param opacity
+     *            opacity
+     * @return a ImagePainter
+     */
+    public static ImagePainter hsb(ColorLookupTable table, ChannelPainter hue,
+            ChannelPainter saturation, ChannelPainter brightness,
+            ChannelPainter opacity) {
+
+        return argb((x, y) -> table.argb(hue.valueAt(x, y),
+                saturation.valueAt(x, y), brightness.valueAt(x, y),
+                opacity.valueAt(x, y)));
 
     }
 
@@ -62,7 +153,8 @@ public interface ImagePainter {
     public static ImagePainter gray(ChannelPainter gray,
             ChannelPainter opacity) {
 
-        return (x, y) -> Color.gray(gray.valueAt(x, y), opacity.valueAt(x, y));
+        return argb((x, y) -> ArgbColor.gray(gray.valueAt(x, y),
+                opacity.valueAt(x, y)));
 
     }
 
@@ -75,14 +167,25 @@ public interface ImagePainter {
      */
     public static ImagePainter rainbow(Panorama panorama) {
 
-        ChannelPainter distance = panorama::distanceAt;
-        ChannelPainter slope = panorama::slopeAt;
+        return rainbow(new PanoramaLayers(panorama));
+
+    }
+
+    /**
+     * ImagePainter for the standard painting, from the layers of a panorama.
+     * 
+     * @param layers
+     *          the layers of a Panorama
+     * @return a ImagePainter
+     */
+    public static ImagePainter rainbow(PanoramaLayers layers) {
+
+        ChannelLayer distance = layers.distance();
         ChannelPainter h = distance.div(100000).cycling().mul(360);
-        ChannelPainter s = distance.div(200000).clamped().inverted();
+        ChannelPainter s = layers.distanceSaturation();
 
-        ChannelPainter b = slope.mul(2 / Math.PI).inverted().mul(0.7).add(0.3);
-        ChannelPainter o = distance
-                .map(d -> d == Float.POSITIVE_INFINITY ? 0 : 1);
+        ChannelPainter b = layers.shadedBrightness();
+        ChannelPainter o = layers.opacity();
 
         return hsb(h, s, b, o);
 
@@ -97,20 +200,27 @@ public interface ImagePainter {
      */
     public static ImagePainter grayish(Panorama panorama) {
 
-        ChannelPainter distance = panorama::distanceAt;
-        ChannelPainter slope = panorama::slopeAt;
+        return grayish(new PanoramaLayers(panorama));
+
+    }
 
-        ChannelPainter b = slope.mul(2 / Math.PI).inverted().sub(0.12)
-                .clamped();
-        ChannelPainter o = distance
-                .map(d -> d == Float.POSITIVE_INFINITY ? 0 : 1);
+    /**
+     * ImagePainter for a greyish painting, from the layers of a panorama.
+     * 
+     * @param layers
+     *          the layers of a Panorama
+     * @return a ImagePainter
+     */
+    public static ImagePainter grayish(PanoramaLayers layers) {
 
-        return gray(b, o);
+        return gray(layers.grayBrightness(), layers.opacity());
 
     }
 
     /**
      * ImagePainter for a painting that indicates the isohypses for all 200m.
+     * The colors are read from a table of 360 hues, 2 saturations and 256
+     * brightnesses.
      * 
      * @param panorama
      *          a Panorama
@@ -118,19 +228,29 @@ public interface ImagePainter {
      */
     public static ImagePainter layer(Panorama panorama) {
 
-        ChannelPainter distance = panorama::distanceAt;
-        ChannelPainter slope = panorama::slopeAt;
-        ChannelPainter elevation = panorama::elevationAt;
+        return layer(new PanoramaLayers(panorama));
+
+    }
+
+    /**
+     * ImagePainter for a painting that indicates the isohypses for all 200m,
+     * from the layers of a panorama (see {@link #layer(Panorama)}).
+     * 
+     * @param layers
+     *          the layers of a Panorama
+     * @return a ImagePainter
+     */
+    public static ImagePainter layer(PanoramaLayers layers) {
+
+        ChannelLayer elevation = layers.elevation();
         ChannelPainter h = elevation.div(1000).cycling().mul(360);
-        ChannelPainter s = (x,
-                y) -> elevation.div(200).cycling().valueAt(x, y) < 0.05 ? 1 : 0;
+        ChannelPainter s = elevation
+                .map(e -> Math2.floorMod(e / 200, 1) < 0.05 ? 1 : 0);
 
-        ChannelPainter b = slope.mul(2 / Math.PI).inverted().sub(0.12)
-                .clamped();
-        ChannelPainter o = distance
-                .map(d -> d == Float.POSITIVE_INFINITY ? 0 : 1);
+        ChannelPainter b = layers.grayBrightness();
+        ChannelPainter o = layers.opacity();
         
-        return hsb(h, s, b, o);
+        return hsb(new ColorLookupTable(360, 2, 256), h, s, b, o);
 
     }
 
@@ -142,14 +262,24 @@ public interface ImagePainter {
      * @return a ImagePainter
      */
     public static ImagePainter draw(Panorama panorama) {
-        ChannelPainter gray = ChannelPainter.maxDistanceToNeighbors(panorama)
-                .sub(500).div(4500).clamped().inverted();
 
-        ChannelPainter distance = panorama::distanceAt;
-        ChannelPainter opacity = distance
-                .map(d -> d == Float.POSITIVE_INFINITY ? 0 : 1);
+        return draw(new PanoramaLayers(panorama));
 
-        return ImagePainter.gray(gray, opacity);
+    }
+
+    /**
+     * ImagePainter for a painting that looks like a drawing, from the layers
+     * of a panorama.
+     * 
+     * @param layers
+     *          the layers of a Panorama
+     * @return a ImagePainter
+     */
+    public static ImagePainter draw(PanoramaLayers layers) {
+        ChannelPainter gray = layers.maxDistanceToNeighbors().sub(500)
+                .div(4500).clamped().inverted();
+
+        return ImagePainter.gray(gray, layers.opacity());
     }
 
     /**
@@ -161,16 +291,27 @@ public interface ImagePainter {
      */
     public static ImagePainter photorealistic(Panorama panorama) {
 
-        ChannelPainter distance = panorama::distanceAt;
-        ChannelPainter slope = panorama::slopeAt;
-        ChannelPainter h = ChannelPainter.photorealistic(panorama).mul(360);
-        ChannelPainter s = distance.div(200000).clamped().inverted()
-                .fade(panorama);
+        return photorealistic(new PanoramaLayers(panorama));
+
+    }
+
+    /**
+     * ImagePainter that produces a image with realistic colors, from the
+     * layers of a panorama.
+     * 
+     * @param layers
+     *          the layers of a Panorama
+     * @return a ImagePainter
+     */
+    public static ImagePainter photorealistic(PanoramaLayers layers) {
+
+        SurfaceMask mask = layers.mask();
+        ChannelPainter h = ChannelPainter.photorealistic(mask).mul(360);
+        ChannelPainter s = layers.distanceSaturation()
+                .fade(layers.panorama(), mask);
 
-        ChannelPainter b = slope.mul(2 / Math.PI).inverted().mul(0.7).add(0.3)
-                .snowB(panorama).clamped();
-        ChannelPainter o = distance
-                .map(d -> d == Float.POSITIVE_INFINITY ? 0 : 1);
+        ChannelPainter b = layers.shadedBrightness().snowB(mask).clamped();
+        ChannelPainter o = layers.opacity();
 
         return ImagePainter.hsb(h, s, b, o);
 
@@ -184,8 +325,20 @@ public interface ImagePainter {
      * @return a ImagePainter
      */
     public static ImagePainter photorealisticHisto(Panorama panorama) {
-        return (x, y) -> photorealistic(panorama).sky(1).colorAt(x, y)
-                .deriveColor(330, 0.5, 1, 1);
+        return photorealisticHisto(new PanoramaLayers(panorama));
+    }
+
+    /**
+     * ImagePainter that produces a image in a "historic" realistic style,
+     * from the layers of a panorama.
+     * 
+     * @param layers
+     *          the layers of a Panorama
+     * @return a ImagePainter
+     */
+    public static ImagePainter photorealisticHisto(PanoramaLayers layers) {
+        return photorealistic(layers).sky(1).materialize(layers.panorama())
+                .map(c -> ArgbColor.derive(c, 330, 0.5, 1, 1));
     }
 
     /**
@@ -196,7 +349,19 @@ public interface ImagePainter {
      * @return a ImagePainter
      */
     public static ImagePainter photorealisticBlue(Panorama panorama) {
-        return photorealistic(panorama).sky(0);
+        return photorealisticBlue(new PanoramaLayers(panorama));
+    }
+
+    /**
+     * ImagePainter that produces a image with realistic colors and blue sky,
+     * from the layers of a panorama.
+     * 
+     * @param layers
+     *          the layers of a Panorama
+     * @return a ImagePainter
+     */
+    public static ImagePainter photorealisticBlue(PanoramaLayers layers) {
+        return photorealistic(layers).sky(0);
     }
 
     /**
@@ -207,14 +372,44 @@ public interface ImagePainter {
      * @return a ImagePainter
      */
     public static ImagePainter photorealisticNight(Panorama panorama) {
-        
-        return ((ImagePainter) ((x, y) -> photorealistic(panorama).colorAt(x, y)
-                .deriveColor(0, 0.5, 0.4, 1)
-                .interpolate(Color.hsb(200, 1, 0.3, 1), 0.3))).sky(2);
+        return photorealisticNight(new PanoramaLayers(panorama));
+    }
+
+    /**
+     * ImagePainter that produces a image of the landscape at night, from the
+     * layers of a panorama.
+     * 
+     * @param layers
+     *          the layers of a Panorama
+     * @return a ImagePainter
+     */
+    public static ImagePainter photorealisticNight(PanoramaLayers layers) {
+        int night = ArgbColor.hsb(200, 1, 0.3, 1);
+
+        return photorealistic(layers).materialize(layers.panorama())
+                .map(c -> ArgbColor.interpolate(
+                        ArgbColor.derive(c, 0, 0.5, 0.4, 1), night, 0.3))
+                .sky(2);
+    }
+
+    /**
+     * Returns the opacity of the standard paintings: transparent where the
+     * distance is infinite (sky), opaque elsewhere.
+     * 
+     * @param distance
+     *          the distances of the panorama
+     * @return the opacity
+     */
+    public static ChannelLayer opacity(ChannelLayer distance) {
+
+        return distance.map(d -> d == Float.POSITIVE_INFINITY ? 0 : 1);
+
     }
 
     /**
      * ImagePainter (Filter) that adds a sky (different colors depending on the given argument)..
+     * The stars of the night sky (mode 2) only depend on the position, so the
+     * same sky is drawn each time.
      * 
      * @param mode
      *          mode (indicates wanted sky color)
@@ -222,24 +417,31 @@ public interface ImagePainter {
      */
     public default ImagePainter sky(int mode) {
 
-        return (x, y) -> {
-            if (this.colorAt(x, y).getOpacity() < 1) {
+        return argb((x, y) -> {
+            int argb = this.argbAt(x, y);
+
+            if (ArgbColor.opacity(argb) < 1) {
                 if (mode == 0)
 
-                    return Color.hsb(180, 0.2, 1, 1);
+                    return ArgbColor.hsb(180, 0.2, 1, 1);
 
                 if (mode == 1)
-                    return Color.hsb(70, 0.2, 1, 1);
+                    return ArgbColor.hsb(70, 0.2, 1, 1);
 
                 if (mode == 2) {
-                    if (Math.random() < 0.9985)
-                        return Color.hsb(70, 0, 0, 1);
+                    int hash = (x * 0x9E3779B1) ^ (y * 0x85EBCA77);
+                    hash ^= hash >>> 15;
+                    hash *= 0x2C1B3C6D;
+                    hash ^= hash >>> 13;
+
+                    if ((hash >>> 8) / (double) (1 << 24) < 0.9985)
+                        return ArgbColor.hsb(70, 0, 0, 1);
 
-                    return Color.hsb(70, 0, 1, 1);
+                    return ArgbColor.hsb(70, 0, 1, 1);
                 }
             }
-            return this.colorAt(x, y);
-        };
+            return argb;
+        });
 
     }
 
@@ -1,25 +1,29 @@
 package ch.epfl.alpano.gui;
 
 import static ch.epfl.alpano.Math2.firstIntervalContainingRoot;
+import static ch.epfl.alpano.Preconditions.checkArgument;
+import static ch.epfl.alpano.Sorting.sort;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.BitSet;
-import java.util.Collections;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Objects;
 import java.util.function.DoubleUnaryOperator;
+import java.util.stream.IntStream;
 
 import javafx.scene.Node;
 import javafx.scene.text.Text;
 import javafx.scene.shape.Line;
 import javafx.scene.transform.*;
-import ch.epfl.alpano.Math2;
+import ch.epfl.alpano.GeoPoint;
+import ch.epfl.alpano.Panorama;
 import ch.epfl.alpano.PanoramaComputer;
 import ch.epfl.alpano.PanoramaParameters;
 import ch.epfl.alpano.dem.ContinuousElevationModel;
 import ch.epfl.alpano.dem.ElevationProfile;
 import ch.epfl.alpano.summit.Summit;
+import ch.epfl.alpano.summit.SummitIndex;
 
 /**
  * Provides the labels for the panorama-view in form of formatted nodes that are
@@ -39,7 +43,8 @@ public final class Labelizer {
     private final static int TEXT_SUMMIT_D = 22;
 
     private final ContinuousElevationModel mnt;
-    private final List<Summit> summits;
+    private final SummitIndex summits;
+    private volatile Projections projections;
 
     /**
      * Constructor. Takes the basic general informations needed to calculate
@@ -54,6 +59,22 @@ public final class Labelizer {
      */
     public Labelizer(ContinuousElevationModel mnt, List<Summit> summits) {
 
+        this(mnt, new SummitIndex(summits));
+
+    }
+
+    /**
+     * Constructor with summits that are already indexed.
+     * 
+     * @param mnt
+     *            ContinousElevationModel
+     * @param summits
+     *            index of the summits
+     * @throws NullPointerException
+     *             if one of both arguments is null
+     */
+    public Labelizer(ContinuousElevationModel mnt, SummitIndex summits) {
+
         this.mnt = Objects.requireNonNull(mnt);
         this.summits = Objects.requireNonNull(summits);
 
@@ -68,156 +89,357 @@ public final class Labelizer {
      */
     public List<Node> labels(PanoramaParameters parameters) {
 
+        return labels(parameters, null);
+
+    }
+
+    /**
+     * Provides the list of label nodes (lines and the information texts) of
+     * the summits that are visible in a computed panorama. A summit is
+     * visible if the distance of the panorama at its pixel is not shorter
+     * than its own distance (up to a tolerance), so no ray is marched to the
+     * summits. The panorama must be computed for the same observer and field
+     * of view as the labels, but its size can be different.
+     * 
+     * @param parameters
+     *            PanoramaParameters of the labels
+     * @param panorama
+     *            the computed panorama
+     * @return list of the nodes that describe the labels (text + line)
+     * @throws IllegalArgumentException
+     *             if the panorama is not computed with compatible parameters
+     */
+    public List<Node> labels(PanoramaParameters parameters,
+            Panorama panorama) {
+
         List<Node> etiquettes = new ArrayList<>();
-        List<SummitPosition> inFrame = new LinkedList<>();
-
-        for (Summit x : summits) {
-
-            double distance = parameters.observerPosition()
-                    .distanceTo(x.position());
-
-            if (distance <= parameters.maxDistance()) {
-
-                double azimuth = parameters.observerPosition()
-                        .azimuthTo(x.position());
-                double horizontalTolerance = parameters.horizontalFieldOfView()
-                        / 2;
-
-                if (Math.abs(Math2.angularDistance(azimuth,
-                        parameters.centerAzimuth())) <= horizontalTolerance) {
-
-                    ElevationProfile profile = new ElevationProfile(mnt,
-                            parameters.observerPosition(), azimuth, distance);
-                    double slope = (-PanoramaComputer
-                            .rayToGroundDistance(profile,
-                                    parameters.observerElevation(), 0)
-                            .applyAsDouble(distance)) / distance;
-                    double altitude = Math.atan(slope);
-                    double verticalTolerance = parameters.verticalFieldOfView()
-                            / 2;
-
-                    if (altitude >= -verticalTolerance
-                            && altitude <= verticalTolerance) {
-
-                        int verticalPixelPos = (int) Math
-                                .round(parameters.yForAltitude(altitude));
-
-                        int horizontalPixelPos = (int) Math
-                                .round(parameters.xForAzimuth(azimuth));
-
-                        if (verticalPixelPos >= MIN_SPACE
-                                && horizontalPixelPos >= FRAME_DISTANCE_POS
-                                && horizontalPixelPos <= parameters.width()
-                                        - FRAME_DISTANCE_POS) {
-
-                            DoubleUnaryOperator distanceFunc = PanoramaComputer
-                                    .rayToGroundDistance(profile,
-                                            parameters.observerElevation(),
-                                            slope);
-                            double foundDistance = firstIntervalContainingRoot(
-                                    distanceFunc, 0, distance,
-                                    RESEARCH_INTERVAL);
-
-                            if (foundDistance > distance - TOLERANCE) {
-                                inFrame.add(new SummitPosition(x,
-                                        verticalPixelPos, horizontalPixelPos));
-                            }
-                        }
-                    }
+        Placement placement = placement(parameters, panorama);
+        SummitIndex.View view = placement.view;
+
+        for (int j : placement.labeled) {
+
+            int i = placement.inView[j];
+            int x = placement.horizontalPos[j];
+
+            Text t = new Text(view.name(i) + " (" + view.elevation(i) + " m)");
+            t.getTransforms().addAll(new Translate(x, placement.textPosition),
+                    new Rotate(-60, 0, 0));
+            etiquettes.add(t);
+
+            Line l = new Line(x, placement.verticalPos[j], x,
+                    placement.textPosition + 1);
+            etiquettes.add(l);
+
+        }
+
+        return etiquettes;
+
+    }
+
+    /**
+     * Provides the summits that get a label in a computed panorama (see
+     * {@link #labels(PanoramaParameters, Panorama)}), from left to right.
+     * Unlike the labels, the summits can be used without javafx.
+     * 
+     * @param parameters
+     *            PanoramaParameters of the labels
+     * @param panorama
+     *            the computed panorama, or null to march the rays to the
+     *            summits
+     * @return list of the labeled summits
+     * @throws IllegalArgumentException
+     *             if the panorama is not computed with compatible parameters
+     */
+    public List<Summit> labeledSummits(PanoramaParameters parameters,
+            Panorama panorama) {
+
+        Placement placement = placement(parameters, panorama);
+        int[] labeled = placement.labeled.clone();
+        List<Summit> summits = new ArrayList<>(labeled.length);
+
+        sort(labeled, (j1, j2) -> Integer.compare(placement.horizontalPos[j1],
+                placement.horizontalPos[j2]));
+        for (int j : labeled)
+            summits.add(placement.view.summit(placement.inView[j]));
+
+        return summits;
+
+    }
+
+    // private functions
+
+    /**
+     * Places the labels: projects the summits in the field of view, keeps
+     * the visible ones that are far enough from the borders and chooses the
+     * ones that get a label, from the highest in the image to the lowest,
+     * as long as they do not overlap.
+     */
+    private Placement placement(PanoramaParameters parameters,
+            Panorama panorama) {
+
+        checkArgument(panorama == null
+                || compatible(parameters, panorama.parameters()),
+                "panorama with incompatible parameters");
+
+        Projections projections = projections(parameters);
+        SummitIndex.View view = projections.view;
+        int[] inView = view.inFieldOfView(parameters.centerAzimuth(),
+                parameters.horizontalFieldOfView());
+        int n = inView.length;
+        int[] verticalPos = new int[n];
+        int[] horizontalPos = new int[n];
+        boolean[] inFrame = new boolean[n];
+        double verticalTolerance = parameters.verticalFieldOfView() / 2;
+
+        IntStream.range(0, n).parallel().forEach(j -> {
+            int i = inView[j];
+            double azimuth = view.azimuth(i);
+            double altitude = Math.atan(projections.slope(i));
+
+            if (altitude >= -verticalTolerance
+                    && altitude <= verticalTolerance) {
+
+                verticalPos[j] = (int) Math
+                        .round(parameters.yForAltitude(altitude));
+                horizontalPos[j] = (int) Math
+                        .round(parameters.xForAzimuth(azimuth));
+
+                if (verticalPos[j] >= MIN_SPACE
+                        && horizontalPos[j] >= FRAME_DISTANCE_POS
+                        && horizontalPos[j] <= parameters.width()
+                                - FRAME_DISTANCE_POS) {
+
+                    inFrame[j] = panorama == null ? projections.isVisible(i)
+                            : depthAt(panorama, azimuth,
+                                    altitude) > view.distance(i) - TOLERANCE;
                 }
             }
-        }
+        });
+
+        int count = 0;
+        int[] sorted = new int[n];
+        for (int j = 0; j < n; j++)
+            if (inFrame[j])
+                sorted[count++] = j;
+        sorted = Arrays.copyOf(sorted, count);
+
+        // by vertical position, than by elevation (higher first) and finally
+        // by the order of the summits in their list
+        sort(sorted, (j1, j2) -> {
+            int c = Integer.compare(verticalPos[j1], verticalPos[j2]);
+
+            if (c == 0)
+                c = Integer.compare(view.elevation(inView[j2]),
+                        view.elevation(inView[j1]));
+            if (c == 0)
+                c = Integer.compare(view.index(inView[j1]),
+                        view.index(inView[j2]));
+            return c;
+        });
 
-        Collections.sort(inFrame);
         BitSet bs = new BitSet(parameters.width());
+        int[] labeled = new int[count];
+        int labels = 0;
         int textPosition = 0;
 
         bs.set(0, FRAME_DISTANCE_POS);
         bs.set(parameters.width() - FRAME_DISTANCE, parameters.width());
 
-        if (inFrame.size() > 0) {
+        if (count > 0) {
 
-            int highestMountain = inFrame.get(0).verticalPos();
+            int highestMountain = verticalPos[sorted[0]];
             textPosition = highestMountain - TEXT_SUMMIT_D;
 
         }
 
-        for (SummitPosition elem : inFrame) {
+        for (int j : sorted) {
 
-            if (!bs.get(elem.horizontalPos())) {
+            int x = horizontalPos[j];
 
-                bs.set(elem.horizontalPos() - FRAME_DISTANCE,
-                        elem.horizontalPos() + FRAME_DISTANCE);
+            if (!bs.get(x)) {
 
-                Text t = new Text(elem.summit().name() + " ("
-                        + elem.summit().elevation() + " m)");
-                t.getTransforms().addAll(
-                        new Translate(elem.horizontalPos(), textPosition),
-                        new Rotate(-60, 0, 0));
-                etiquettes.add(t);
-
-                Line l = new Line(elem.horizontalPos(), elem.verticalPos(),
-                        elem.horizontalPos(), textPosition + 1);
-                etiquettes.add(l);
+                bs.set(x - FRAME_DISTANCE, x + FRAME_DISTANCE);
+                labeled[labels++] = j;
 
             }
 
         }
 
-        return etiquettes;
+        return new Placement(view, inView, verticalPos, horizontalPos,
+                Arrays.copyOf(labeled, labels), textPosition);
 
     }
 
     /**
-     * Small class that stores the position of the summit and the summit itself.
-     * The class is comparable, so a list of SummitPosition can be sorted.
-     *
+     * The placement of the labels: the positions in the image of the summits
+     * in the field of view (see {@link SummitIndex.View#inFieldOfView}), the
+     * ones that get a label (in the order of the labels) and the vertical
+     * position of the texts.
      */
-    private final class SummitPosition implements Comparable<SummitPosition> {
+    private static final class Placement {
 
-        private final Summit summit;
-        private final Integer verticalPos;
-        private final Integer horizontalPos;
+        private final SummitIndex.View view;
+        private final int[] inView;
+        private final int[] verticalPos;
+        private final int[] horizontalPos;
+        private final int[] labeled;
+        private final int textPosition;
 
-        SummitPosition(Summit summit, int verticalPos, int horizontalPos) {
+        Placement(SummitIndex.View view, int[] inView, int[] verticalPos,
+                int[] horizontalPos, int[] labeled, int textPosition) {
 
-            this.summit = summit;
+            this.view = view;
+            this.inView = inView;
             this.verticalPos = verticalPos;
             this.horizontalPos = horizontalPos;
+            this.labeled = labeled;
+            this.textPosition = textPosition;
 
         }
 
-        Summit summit() {
+    }
+
+    /**
+     * Checks that two parameters describe the same view (maybe in different
+     * sizes).
+     */
+    private static boolean compatible(PanoramaParameters p1,
+            PanoramaParameters p2) {
+
+        return p1.observerPosition().longitude() == p2.observerPosition()
+                .longitude()
+                && p1.observerPosition().latitude() == p2.observerPosition()
+                        .latitude()
+                && p1.observerElevation() == p2.observerElevation()
+                && p1.centerAzimuth() == p2.centerAzimuth()
+                && p1.horizontalFieldOfView() == p2.horizontalFieldOfView()
+                && p1.maxDistance() == p2.maxDistance();
+
+    }
+
+    /**
+     * Returns the horizontal distance of the point of the panorama at the
+     * pixel of a direction (infinite if the direction is out of the
+     * panorama). The distances of the panorama are measured along the rays,
+     * so they are corrected by the cosine of the altitude of the row.
+     */
+    private static double depthAt(Panorama panorama, double azimuth,
+            double altitude) {
+
+        PanoramaParameters p = panorama.parameters();
+        int x = (int) Math.round(p.xForAzimuth(azimuth));
+        int y = (int) Math.round(p.yForAltitude(altitude));
+
+        if (x < 0 || x >= p.width() || y < 0 || y >= p.height())
+            return Double.POSITIVE_INFINITY;
+        return panorama.distanceAt(x, y) / p.inverseCosAltitudeForRow(y);
 
-            return summit;
+    }
 
+    /**
+     * Returns the projections of the summits for the observer of the
+     * parameters, which are kept as long as the observer does not change (so
+     * they are reused when only the direction or the field of view changes).
+     */
+    private Projections projections(PanoramaParameters parameters) {
+
+        Projections p = projections;
+
+        if (p == null || !p.isFor(parameters)) {
+            p = new Projections(parameters);
+            projections = p;
         }
+        return p;
 
-        int verticalPos() {
+    }
 
-            return verticalPos;
+    /**
+     * Projections of the summits around an observer: their azimuth and
+     * distance (see {@link SummitIndex.View}), and, computed when they are
+     * needed for the first time, the slope of the ray to the summit and the
+     * visibility of the summit.
+     */
+    private final class Projections {
+
+        private static final byte UNKNOWN = 0;
+        private static final byte VISIBLE = 1;
+        private static final byte HIDDEN = 2;
+
+        private final GeoPoint observer;
+        private final int observerElevation;
+        private final int maxDistance;
+        private final SummitIndex.View view;
+        private final double[] slopes;
+        private final byte[] visibilities;
+
+        Projections(PanoramaParameters parameters) {
+
+            observer = parameters.observerPosition();
+            observerElevation = parameters.observerElevation();
+            maxDistance = parameters.maxDistance();
+            view = summits.view(observer, maxDistance);
+            slopes = new double[view.size()];
+            visibilities = new byte[view.size()];
+            Arrays.fill(slopes, Double.NaN);
 
         }
 
-        int horizontalPos() {
+        boolean isFor(PanoramaParameters parameters) {
 
-            return horizontalPos;
+            return observer.longitude() == parameters.observerPosition()
+                    .longitude()
+                    && observer.latitude() == parameters.observerPosition()
+                            .latitude()
+                    && observerElevation == parameters.observerElevation()
+                    && maxDistance == parameters.maxDistance();
 
         }
 
         /**
-         * Sorts first by vertical position and than by the elevation of the
-         * summit (higher first).
-         * 
-         * @see java.lang.Comparable#compareTo(java.lang.Object)
+         * Returns the slope of the ray from the observer to a summit.
          */
-        @Override
-        public int compareTo(SummitPosition arg0) {
-            int comp = verticalPos.compareTo(arg0.verticalPos());
-            if (comp == 0)
-                comp = -Integer.compare(summit.elevation(),
-                        arg0.summit().elevation());
-            return comp;
+        double slope(int i) {
+
+            double slope = slopes[i];
+
+            if (Double.isNaN(slope)) {
+                double distance = view.distance(i);
+
+                slope = (-PanoramaComputer
+                        .rayToGroundDistance(profile(i), observerElevation, 0)
+                        .applyAsDouble(distance)) / distance;
+                slopes[i] = slope;
+            }
+            return slope;
+
+        }
+
+        /**
+         * Checks if the ray from the observer to a summit does not hit the
+         * ground before the summit.
+         */
+        boolean isVisible(int i) {
+
+            if (visibilities[i] == UNKNOWN) {
+                double distance = view.distance(i);
+                DoubleUnaryOperator distanceFunc = PanoramaComputer
+                        .rayToGroundDistance(profile(i), observerElevation,
+                                slope(i));
+                double foundDistance = firstIntervalContainingRoot(
+                        distanceFunc, 0, distance, RESEARCH_INTERVAL);
+
+                visibilities[i] = foundDistance > distance - TOLERANCE
+                        ? VISIBLE : HIDDEN;
+            }
+            return visibilities[i] == VISIBLE;
+
+        }
+
+        private ElevationProfile profile(int i) {
+
+            return new ElevationProfile(mnt, observer, view.azimuth(i),
+                    view.distance(i));
+
         }
 
     }
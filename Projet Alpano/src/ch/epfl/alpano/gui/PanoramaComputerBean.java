@@ -1,5 +1,6 @@
 package ch.epfl.alpano.gui;
 
+import javafx.application.Platform;
 import javafx.beans.property.*;
 import javafx.collections.ObservableList;
 
@@ -9,10 +10,16 @@ import javafx.scene.paint.Color;
 import javafx.scene.shape.Line;
 import javafx.scene.text.Text;
 
+import java.util.EnumMap;
 import java.util.List;
-import java.util.function.Function;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import ch.epfl.alpano.Panorama;
+import ch.epfl.alpano.PanoramaCache;
 import ch.epfl.alpano.PanoramaComputer;
 import ch.epfl.alpano.dem.ContinuousElevationModel;
 import ch.epfl.alpano.gui.PanoramaRenderer;
@@ -22,6 +29,17 @@ import javafx.collections.FXCollections;
 /**
  * Represents the panorama shown in the user-interface.
  * 
+ * The panoramas, their labels and their images are computed in a background
+ * thread. A change of the parameters cancels the computation for the previous
+ * parameters (its results would be dropped anyway), and the properties of the
+ * bean are only updated on the JavaFX thread, once a computation is
+ * completed.
+ * 
+ * The layers of the shown panorama (see {@link PanoramaLayers}) and the
+ * images of the view modes already shown for it are kept, so a change of the
+ * view mode only combines layers that are already computed, or reuses an
+ * image.
+ * 
  * @author Natal Willisch (262092)
  * 
  */
@@ -36,13 +54,19 @@ public final class PanoramaComputerBean {
     private final ObjectProperty<Image> image;
     private final ObjectProperty<ObservableList<Node>> labels;
 
-    private final ObjectProperty<Function<Panorama, ImagePainter>> imagePainterProperty;
-    private final BooleanProperty labelColorProperty;
+    private final ObjectProperty<ViewMode> viewModeProperty;
     private final ObservableList<Node> labelList;
     private final PanoramaComputer computer;
     private final Labelizer labelMaker;
+    private final BooleanProperty computing;
+    private final ExecutorService executor;
+
+    private final Map<ViewMode, Image> images; // of the shown panorama
 
-    private boolean change;
+    private PanoramaLayers layers; // of the shown panorama
+    private boolean whiteLabels; // current color of the labels
+    private long generation; // number of the last computation
+    private Future<?> task; // last computation, or null if it is completed
 
     /**
      * @param mnt
@@ -55,18 +79,41 @@ public final class PanoramaComputerBean {
     public PanoramaComputerBean(ContinuousElevationModel mnt,
             List<Summit> summits) {
 
+        this(mnt, summits, null);
+
+    }
+
+    /**
+     * @param mnt
+     *            a continuous elevation-model
+     * @param summits
+     *            list of all summits
+     * @param cache
+     *            cache of the computed panoramas (or null)
+     * @throws NullPointerException
+     *             if {@code mnt} or {@code summits} is null
+     */
+    public PanoramaComputerBean(ContinuousElevationModel mnt,
+            List<Summit> summits, PanoramaCache cache) {
+
         this.parameters = new SimpleObjectProperty<>(null);
         panorama = new SimpleObjectProperty<>(null);
         image = new SimpleObjectProperty<>(null);
-        computer = new PanoramaComputer(mnt);
+        computer = new PanoramaComputer(mnt, cache);
         labelList = FXCollections.observableArrayList();
         labels = new SimpleObjectProperty<>(
                 FXCollections.unmodifiableObservableList(labelList));
         labelMaker = new Labelizer(mnt, summits);
         parameters.addListener((b, o, n) -> synchronizeParameters());
-        imagePainterProperty = new SimpleObjectProperty<>(p -> ImagePainter.rainbow(p));
-        imagePainterProperty.addListener((b, o, n) -> draw());
-        labelColorProperty = new SimpleBooleanProperty(false);
+        viewModeProperty = new SimpleObjectProperty<>(ViewMode.RAINBOW);
+        viewModeProperty.addListener((b, o, n) -> draw());
+        images = new EnumMap<>(ViewMode.class);
+        computing = new SimpleBooleanProperty(false);
+        executor = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "panorama computer");
+            t.setDaemon(true);
+            return t;
+        });
     }
 
     /**
@@ -172,67 +219,143 @@ public final class PanoramaComputerBean {
     }
 
     /**
-     * returns a Property that contains a Function that takes a panorama as argument and returns a ImagePainter.
+     * returns a Property that contains the view mode, which gives the
+     * ImagePainter of the panorama and the color of the labels.
+     * 
+     * @return the view mode-property
+     */
+    ObjectProperty<ViewMode> viewModeProperty() {
+
+        return viewModeProperty;
+
+    }
+
+    /**
+     * Returns a property (read only) that is true while a panorama is
+     * computed for new parameters (the other properties then still contain
+     * the previous panorama).
      * 
-     * @return Property that contains a Function that takes a panorama as argument and returns a ImagePainter
+     * @return the computing-property
      */
-    ObjectProperty<Function<Panorama, ImagePainter>> imagePainterProperty() {
+    ReadOnlyBooleanProperty computingProperty() {
 
-        return imagePainterProperty;
+        return computing;
 
     }
 
     /**
-     * returns a BooleanProperty that indicates the color of the labels
+     * Returns true while a panorama is computed for new parameters.
      * 
-     * @return a BooleanProperty that indicates the color of the labels
+     * @return true during a computation
      */
-    BooleanProperty labelColorProperty() {
+    boolean isComputing() {
 
-        return labelColorProperty;
+        return computing.getValue();
 
     }
 
     /**
-     * Synchronizes all the properties. (calculates the panorama and renders the
-     * corresponding image)
+     * Synchronizes all the properties. (starts the computation of the
+     * panorama, its labels and its image in the background)
      */
     private void synchronizeParameters() {
-        panorama.setValue(
-                computer.computePanorama(getParameters().panoramaParameters()));
-        labelList.setAll(
-                labelMaker.labels(getParameters().panoramaDisplayParameters()));
-        change = false;
+
+        PanoramaUserParameters parameters = getParameters();
+        ViewMode mode = viewModeProperty.getValue();
+        long generation = ++this.generation;
+
+        if (task != null)
+            task.cancel(true);
+        computing.setValue(true);
+
+        task = executor.submit(() -> {
+            try {
+                Panorama newPanorama = computer
+                        .computePanorama(parameters.panoramaParameters());
+                List<Node> newLabels = labelMaker.labels(
+                        parameters.panoramaDisplayParameters(), newPanorama);
+
+                if (Thread.currentThread().isInterrupted())
+                    return;
+
+                PanoramaLayers newLayers = new PanoramaLayers(newPanorama);
+                Image newImage = PanoramaRenderer.renderPanorama(newPanorama,
+                        mode.painter(newLayers));
+
+                Platform.runLater(() -> publish(generation, newPanorama,
+                        newLayers, newLabels, mode, newImage));
+            } catch (CancellationException e) {
+                // the parameters have changed during the computation
+            } catch (RuntimeException | Error e) {
+                Platform.runLater(() -> {
+                    if (generation == this.generation) {
+                        task = null;
+                        computing.setValue(false);
+                    }
+                    throw e;
+                });
+            }
+        });
+
+    }
+
+    /**
+     * Updates the properties with the results of a computation, if no other
+     * computation was started since (called on the JavaFX thread).
+     */
+    private void publish(long generation, Panorama newPanorama,
+            PanoramaLayers newLayers, List<Node> newLabels, ViewMode mode,
+            Image newImage) {
+
+        if (generation != this.generation)
+            return;
+
+        task = null;
+        layers = newLayers;
+        images.clear();
+        images.put(mode, newImage);
+        panorama.setValue(newPanorama);
+        labelList.setAll(newLabels);
+        whiteLabels = false; // new labels are black
+
+        // the image is rendered for the current mode if it has changed
+        // meanwhile
         draw();
 
+        computing.setValue(false);
+
     }
 
     //draw image
     private void draw() {
         if (getPanorama() != null) {
 
-            boolean bool = false;
-            if (labelColorProperty.getValue())
-                bool = true;
+            ViewMode mode = viewModeProperty.getValue();
 
-            if (bool)
-                labelList.forEach(n -> {
-                    if (n instanceof Text)
-                        ((Text) n).setFill(Color.WHITE);
-                    if (n instanceof Line)
-                        ((Line) n).setStroke(Color.WHITE);
-                });
-            else if (change)
-                labelList.forEach(n -> {
-                    if (n instanceof Text)
-                        ((Text) n).setFill(Color.BLACK);
-                    if (n instanceof Line)
-                        ((Line) n).setStroke(Color.BLACK);
-                });
-            change = bool;
+            colorLabels(mode.whiteLabels());
+
+            image.setValue(images.computeIfAbsent(mode,
+                    m -> PanoramaRenderer.renderPanorama(getPanorama(),
+                            m.painter(layers))));
+        }
 
-            image.setValue(PanoramaRenderer.renderPanorama(getPanorama(),
-                    imagePainterProperty.getValue().apply(getPanorama())));
+    }
+
+    /**
+     * Colors the labels, only if their color changes.
+     */
+    private void colorLabels(boolean white) {
+
+        if (white != whiteLabels) {
+            Color color = white ? Color.WHITE : Color.BLACK;
+
+            labelList.forEach(n -> {
+                if (n instanceof Text)
+                    ((Text) n).setFill(color);
+                if (n instanceof Line)
+                    ((Line) n).setStroke(color);
+            });
+            whiteLabels = white;
         }
 
     }
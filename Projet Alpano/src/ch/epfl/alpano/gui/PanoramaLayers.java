@@ -0,0 +1,182 @@
+package ch.epfl.alpano.gui;
+
+import java.util.Objects;
+
+import ch.epfl.alpano.Panorama;
+import ch.epfl.alpano.Panorama.Channel;
+
+/**
+ * The layers shared by the image painters of one panorama: its channels,
+ * the opacity, the brightnesses given by the slope, the saturation given by
+ * the distance, the surfaces and the differences of distances used by the
+ * sketch. Every layer is computed once, when it is needed for the first
+ * time, so switching between the view modes (see {@link ViewMode}) only
+ * combines layers that are already computed.
+ *
+ * @author Natal Willisch (262092)
+ *
+ */
+public final class PanoramaLayers {
+
+    private final Panorama panorama;
+
+    private ChannelLayer distance;
+    private ChannelLayer slope;
+    private ChannelLayer elevation;
+    private ChannelLayer opacity;
+    private ChannelLayer shadedBrightness;
+    private ChannelLayer grayBrightness;
+    private ChannelLayer distanceSaturation;
+    private ChannelLayer maxDistanceToNeighbors;
+    private SurfaceMask mask;
+
+    /**
+     * Constructs the (not yet computed) layers of a panorama.
+     *
+     * @param panorama
+     *            the panorama
+     * @throws NullPointerException
+     *             if the panorama is null
+     */
+    public PanoramaLayers(Panorama panorama) {
+
+        this.panorama = Objects.requireNonNull(panorama, "panorama is null");
+
+    }
+
+    /**
+     * Returns the panorama of the layers.
+     *
+     * @return the panorama
+     */
+    public Panorama panorama() {
+
+        return panorama;
+
+    }
+
+    /**
+     * Returns the distances.
+     *
+     * @return layer of the distance channel
+     */
+    public synchronized ChannelLayer distance() {
+
+        if (distance == null)
+            distance = ChannelLayer.of(panorama, Channel.DISTANCE);
+        return distance;
+
+    }
+
+    /**
+     * Returns the slopes.
+     *
+     * @return layer of the slope channel
+     */
+    public synchronized ChannelLayer slope() {
+
+        if (slope == null)
+            slope = ChannelLayer.of(panorama, Channel.SLOPE);
+        return slope;
+
+    }
+
+    /**
+     * Returns the elevations.
+     *
+     * @return layer of the elevation channel
+     */
+    public synchronized ChannelLayer elevation() {
+
+        if (elevation == null)
+            elevation = ChannelLayer.of(panorama, Channel.ELEVATION);
+        return elevation;
+
+    }
+
+    /**
+     * Returns the opacity (see {@link ImagePainter#opacity(ChannelLayer)}).
+     *
+     * @return the opacity
+     */
+    public synchronized ChannelLayer opacity() {
+
+        if (opacity == null)
+            opacity = ImagePainter.opacity(distance());
+        return opacity;
+
+    }
+
+    /**
+     * Returns the brightness given by the slope, between 0.3 (vertical) and
+     * 1 (flat), of the colored paintings.
+     *
+     * @return the brightness
+     */
+    public synchronized ChannelLayer shadedBrightness() {
+
+        if (shadedBrightness == null)
+            shadedBrightness = slope().mul(2 / Math.PI).inverted().mul(0.7)
+                    .add(0.3);
+        return shadedBrightness;
+
+    }
+
+    /**
+     * Returns the brightness given by the slope, between 0 and 0.88 (flat),
+     * of the gray paintings.
+     *
+     * @return the brightness
+     */
+    public synchronized ChannelLayer grayBrightness() {
+
+        if (grayBrightness == null)
+            grayBrightness = slope().mul(2 / Math.PI).inverted().sub(0.12)
+                    .clamped();
+        return grayBrightness;
+
+    }
+
+    /**
+     * Returns the saturation given by the distance, from 1 at the observer to
+     * 0 at 200 km.
+     *
+     * @return the saturation
+     */
+    public synchronized ChannelLayer distanceSaturation() {
+
+        if (distanceSaturation == null)
+            distanceSaturation = distance().div(200000).clamped().inverted();
+        return distanceSaturation;
+
+    }
+
+    /**
+     * Returns the maximal differences of distance to the neighbors (see
+     * {@link ChannelLayer#maxDistanceToNeighbors(Panorama)}).
+     *
+     * @return the differences of distance
+     */
+    public synchronized ChannelLayer maxDistanceToNeighbors() {
+
+        if (maxDistanceToNeighbors == null)
+            maxDistanceToNeighbors = ChannelLayer
+                    .maxDistanceToNeighbors(panorama);
+        return maxDistanceToNeighbors;
+
+    }
+
+    /**
+     * Returns the surfaces of the panorama.
+     *
+     * @return the surfaces
+     */
+    public synchronized SurfaceMask mask() {
+
+        if (mask == null)
+            mask = SurfaceMask.of(panorama);
+        return mask;
+
+    }
+
+}
@@ -1,13 +1,22 @@
 package ch.epfl.alpano.gui;
 
+import static ch.epfl.alpano.Preconditions.checkArgument;
+
+import javafx.animation.Animation;
+import javafx.animation.PauseTransition;
 import javafx.beans.property.*;
-import static javafx.application.Platform.runLater;
+import javafx.util.Duration;
 
 import java.util.Objects;
 
 /**
  * Represents the parameters shown in the user-interface.
  * 
+ * The edits of the single parameters are coalesced: the parameters are only
+ * synchronized (and corrected) once no parameter has changed during a quiet
+ * period, so a burst of edits (for example while typing a coordinate) creates
+ * only one new PanoramaUserParameters.
+ * 
  * @author Natal Willisch (262092)
  * 
  */
@@ -23,10 +32,19 @@ public final class PanoramaParametersBean {
     private final ObjectProperty<Integer> widthProperty;
     private final ObjectProperty<Integer> heightProperty;
     private final ObjectProperty<Integer> superSamplingExponentProperty;
+    private final PauseTransition update;
+
+    private boolean synchronizing;
+
+    /**
+     * Default quiet period after the last edit of a parameter
+     */
+    public static final Duration QUIET_PERIOD = Duration.millis(250);
 
     /**
      * Constructs a PanoramaParametersBean. Initialize all parameters that the class
-     * provides based on the given parameters.
+     * provides based on the given parameters. The edits are synchronized
+     * after the default quiet period ({@link #QUIET_PERIOD}).
      * 
      * @param parameters
      *            PanoramaUserParameters
@@ -35,6 +53,32 @@ public final class PanoramaParametersBean {
      */
     public PanoramaParametersBean(PanoramaUserParameters parameters) {
 
+        this(parameters, QUIET_PERIOD);
+
+    }
+
+    /**
+     * Constructs a PanoramaParametersBean. Initialize all parameters that the class
+     * provides based on the given parameters.
+     * 
+     * @param parameters
+     *            PanoramaUserParameters
+     * @param quietPeriod
+     *            time without edits after which the parameters are
+     *            synchronized
+     * @throws NullPointerException
+     *             if parameters or quietPeriod is null
+     * @throws IllegalArgumentException
+     *             if the quiet period is negative or unknown
+     */
+    public PanoramaParametersBean(PanoramaUserParameters parameters,
+            Duration quietPeriod) {
+
+        Objects.requireNonNull(quietPeriod, "quietPeriod is null");
+        checkArgument(!quietPeriod.isUnknown() && !quietPeriod.isIndefinite()
+                && !quietPeriod.lessThan(Duration.ZERO),
+                "invalid quiet period");
+
         this.parameters = new SimpleObjectProperty<>(
                 Objects.requireNonNull(parameters));
 
@@ -55,24 +99,18 @@ public final class PanoramaParametersBean {
         superSamplingExponentProperty = new SimpleObjectProperty<>(
                 parameters.superSamplingExponent());
 
-        observerLongitudeProperty.addListener(
-                (b, o, n) -> runLater(this::synchronizeParameters));
-        observerLatitudeProperty.addListener(
-                (b, o, n) -> runLater(this::synchronizeParameters));
-        observerelevationProperty.addListener(
-                (b, o, n) -> runLater(this::synchronizeParameters));
-        centerAzimuthProperty.addListener(
-                (b, o, n) -> runLater(this::synchronizeParameters));
-        horizontalFieldOfViewProperty.addListener(
-                (b, o, n) -> runLater(this::synchronizeParameters));
-        maxDistanceProperty.addListener(
-                (b, o, n) -> runLater(this::synchronizeParameters));
-        widthProperty.addListener(
-                (b, o, n) -> runLater(this::synchronizeParameters));
-        heightProperty.addListener(
-                (b, o, n) -> runLater(this::synchronizeParameters));
-        superSamplingExponentProperty.addListener(
-                (b, o, n) -> runLater(this::synchronizeParameters));
+        update = new PauseTransition(quietPeriod);
+        update.setOnFinished(e -> synchronizeParameters());
+
+        observerLongitudeProperty.addListener((b, o, n) -> edited());
+        observerLatitudeProperty.addListener((b, o, n) -> edited());
+        observerelevationProperty.addListener((b, o, n) -> edited());
+        centerAzimuthProperty.addListener((b, o, n) -> edited());
+        horizontalFieldOfViewProperty.addListener((b, o, n) -> edited());
+        maxDistanceProperty.addListener((b, o, n) -> edited());
+        widthProperty.addListener((b, o, n) -> edited());
+        heightProperty.addListener((b, o, n) -> edited());
+        superSamplingExponentProperty.addListener((b, o, n) -> edited());
 
     }
 
@@ -186,31 +224,66 @@ public final class PanoramaParametersBean {
 
     }
 
+    /**
+     * Synchronizes at once the edits that wait for the end of the quiet
+     * period.
+     */
+    void flush() {
+
+        if (update.getStatus() == Animation.Status.RUNNING) {
+            update.stop();
+            synchronizeParameters();
+        }
+
+    }
+
+    /**
+     * Restarts the quiet period after an edit (the corrections made by the
+     * synchronization are not edits).
+     */
+    private void edited() {
+
+        if (!synchronizing)
+            update.playFromStart();
+
+    }
+
     /**
      * synchronize and corrects all the properties.
      */
     private void synchronizeParameters() {
 
-        parameters.setValue(
-                new PanoramaUserParameters(observerLongitudeProperty.getValue(),
-                        observerLatitudeProperty.getValue(),
-                        observerelevationProperty.getValue(),
-                        centerAzimuthProperty.getValue(),
-                        horizontalFieldOfViewProperty.getValue(),
-                        maxDistanceProperty.getValue(),
-                        widthProperty.getValue(), heightProperty.getValue(),
-                        superSamplingExponentProperty.getValue()));
-        
-        PanoramaUserParameters content = parameters.getValue();
-        observerLongitudeProperty.setValue(content.observerLongitude());
-        observerLatitudeProperty.setValue(content.observerLatitude());
-        observerelevationProperty.setValue(content.observerElevation());
-        centerAzimuthProperty.setValue(content.centerAzimuth());
-        horizontalFieldOfViewProperty.setValue(content.horizontalFieldOfView());
-        maxDistanceProperty.setValue(content.maxDistance());
-        widthProperty.setValue(content.width());
-        heightProperty.setValue(content.height());
-        superSamplingExponentProperty.setValue(content.superSamplingExponent());
+        PanoramaUserParameters edited = new PanoramaUserParameters(
+                observerLongitudeProperty.getValue(),
+                observerLatitudeProperty.getValue(),
+                observerelevationProperty.getValue(),
+                centerAzimuthProperty.getValue(),
+                horizontalFieldOfViewProperty.getValue(),
+                maxDistanceProperty.getValue(), widthProperty.getValue(),
+                heightProperty.getValue(),
+                superSamplingExponentProperty.getValue());
+
+        // equal parameters are not replaced (they would not cause a change)
+        if (!edited.equals(parameters.getValue()))
+            parameters.setValue(edited);
+
+        synchronizing = true;
+        try {
+            PanoramaUserParameters content = parameters.getValue();
+            observerLongitudeProperty.setValue(content.observerLongitude());
+            observerLatitudeProperty.setValue(content.observerLatitude());
+            observerelevationProperty.setValue(content.observerElevation());
+            centerAzimuthProperty.setValue(content.centerAzimuth());
+            horizontalFieldOfViewProperty
+                    .setValue(content.horizontalFieldOfView());
+            maxDistanceProperty.setValue(content.maxDistance());
+            widthProperty.setValue(content.width());
+            heightProperty.setValue(content.height());
+            superSamplingExponentProperty
+                    .setValue(content.superSamplingExponent());
+        } finally {
+            synchronizing = false;
+        }
 
     }
 
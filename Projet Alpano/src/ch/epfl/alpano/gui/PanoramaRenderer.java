@@ -1,18 +1,24 @@
 package ch.epfl.alpano.gui;
 
 import ch.epfl.alpano.Panorama;
-import javafx.scene.image.PixelWriter;
+import javafx.scene.image.PixelFormat;
 import javafx.scene.image.WritableImage;
 
 /**
- * provides one static function to render a image from a panorama
- * according/through the given ImagePainter.
+ * provides static functions to render a image from a panorama
+ * according/through the given ImagePainter. The image is rendered in parallel
+ * by bands of lines, so the ImagePainter must be free of side effects.
  * 
  * @author Natal Willisch (262092)
  *
  */
 public interface PanoramaRenderer {
 
+    /**
+     * Number of lines of the bands rendered by one thread
+     */
+    public static final int BAND_HEIGHT = 16;
+
     /**
      * Renders a image from a panorama according/through the given ImagePainter.
      * 
@@ -28,14 +34,30 @@ public interface PanoramaRenderer {
         int width = panorama.parameters().width();
         int height = panorama.parameters().height();
         WritableImage image = new WritableImage(width, height);
-        PixelWriter writer = image.getPixelWriter();
         
-        for (int y = 0; y < height; y++)
-            for (int x = 0; x < width; x++) {
-                writer.setColor(x, y, imagePainter.colorAt(x, y));
-            }
+        image.getPixelWriter().setPixels(0, 0, width, height,
+                PixelFormat.getIntArgbInstance(),
+                renderArgb(panorama, imagePainter), 0, width);
         
         return image;
 
     }
+
+    /**
+     * Renders the packed ARGB colors (see {@link ImagePainter#argbAt}) of all
+     * pixels of a panorama in a table, line by line. The bands of
+     * {@value #BAND_HEIGHT} lines are rendered in parallel.
+     * 
+     * @param panorama
+     *              panorama
+     * @param imagePainter
+     *              image-painter
+     * @return table of the packed colors
+     */
+    public static int[] renderArgb(Panorama panorama,
+            ImagePainter imagePainter) {
+
+        return ImageLayer.render(panorama, imagePainter);
+
+    }
 }
@@ -0,0 +1,232 @@
+package ch.epfl.alpano.gui;
+
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+
+import java.util.stream.IntStream;
+
+import ch.epfl.alpano.Math2;
+import ch.epfl.alpano.Panorama;
+import ch.epfl.alpano.Panorama.Channel;
+import ch.epfl.alpano.PanoramaParameters;
+
+/**
+ * Classifies every sample of a panorama in a kind of surface (snow, rock,
+ * water, ...). The classification is done once for the whole panorama, in
+ * one pass over the tables of the slopes and elevations, and the
+ * photorealistic painters only read the resulting mask.
+ *
+ * @author Natal Willisch (262092)
+ *
+ */
+public final class SurfaceMask {
+
+    /**
+     * Surface that is none of the others (meadows, forests, ...)
+     */
+    public static final byte VEGETATION = 0;
+    /**
+     * Snow areas higher than 2800m (see {@link #isSnow})
+     */
+    public static final byte SNOW = 1;
+    /**
+     * Snow areas higher than 2500m that are not {@link #SNOW} (see
+     * {@link #isFirn})
+     */
+    public static final byte FIRN = 2;
+    /**
+     * Stone areas that are not covered by snow (see {@link #isStone})
+     */
+    public static final byte ROCK = 3;
+    /**
+     * Flat areas surrounded by a flat area of the same elevation (lakes)
+     */
+    public static final byte WATER = 4;
+    /**
+     * Flat areas on the border of a lake
+     */
+    public static final byte SHORE = 5;
+
+    private static final double FLAT = 0.00001;
+
+    private final int width;
+    private final int height;
+    private final byte[] surfaces;
+
+    // private constructor
+    private SurfaceMask(int width, int height, byte[] surfaces) {
+
+        this.width = width;
+        this.height = height;
+        this.surfaces = surfaces;
+
+    }
+
+    /**
+     * Classifies all samples of a panorama (the lines are classified in
+     * parallel).
+     *
+     * @param panorama
+     *            the panorama
+     * @return the mask of the panorama
+     * @throws IllegalStateException
+     *             if the slope or the elevation is not computed
+     */
+    public static SurfaceMask of(Panorama panorama) {
+
+        PanoramaParameters p = panorama.parameters();
+        int width = p.width();
+        int height = p.height();
+        float[] distance = panorama.channelValues(Channel.DISTANCE);
+        float[] slope = panorama.channelValues(Channel.SLOPE);
+        float[] elevation = panorama.channelValues(Channel.ELEVATION);
+        byte[] surfaces = new byte[width * height];
+
+        IntStream.range(0, height).parallel().forEach(y -> {
+            for (int x = 0; x < width; x++) {
+                int i = y * width + x;
+                double s = slope[i];
+                double e = elevation[i];
+
+                if (isSnow(e, s))
+                    surfaces[i] = SNOW;
+                else if (isFirn(e, s))
+                    surfaces[i] = FIRN;
+                else if (isStone(e, s))
+                    surfaces[i] = ROCK;
+                else if (s < FLAT
+                        && slope[y * width + clamp(x + 1, width)] < FLAT
+                        && slope[y * width + clamp(x - 1, width)] < FLAT
+                        && (slope[clamp(y + 1, height) * width + x] < FLAT
+                                || slope[clamp(y - 1, height) * width
+                                        + x] < FLAT)) {
+                    double facteur = (width / p.horizontalFieldOfView()
+                            / distance[i] * 1000);
+
+                    int vFactor = (int) (Math
+                            .sqrt((p.altitudeForRow(y) / Math2.PI2) * facteur))
+                            + 1;
+                    int hFactor = (int) facteur + 1;
+
+                    int count = flatAround(slope, elevation, width, height, x,
+                            y, hFactor, vFactor);
+
+                    if (count == 8)
+                        surfaces[i] = WATER;
+                    else if (count > 3 && flatAround(slope, elevation, width,
+                            height, x, y, 3 * hFactor, 3 * vFactor) > 2)
+                        surfaces[i] = SHORE;
+                }
+            }
+        });
+
+        return new SurfaceMask(width, height, surfaces);
+
+    }
+
+    /**
+     * Returns the kind of surface of a sample.
+     *
+     * @param x
+     *            horizontal position
+     * @param y
+     *            vertical position
+     * @return the surface (one of the constants of this class)
+     * @throws IndexOutOfBoundsException
+     *             if the position is not in the panorama
+     */
+    public byte surfaceAt(int x, int y) {
+
+        if (x < 0 || x >= width || y < 0 || y >= height)
+            throw new IndexOutOfBoundsException("position out of the mask");
+
+        return surfaces[y * width + x];
+
+    }
+
+    /**
+     * Criteria for snow areas. (higher 2800m)
+     *
+     * @param elevation
+     *            the elevation
+     * @param slope
+     *            the slope
+     * @return true if the point is covered by snow
+     */
+    public static boolean isSnow(double elevation, double slope) {
+
+        return elevation > 2800 && slope < 1 && slope > 0.8;
+
+    }
+
+    /**
+     * Criteria for snow areas. (higher 2500m)
+     *
+     * @param elevation
+     *            the elevation
+     * @param slope
+     *            the slope
+     * @return true if the point is covered by snow
+     */
+    public static boolean isFirn(double elevation, double slope) {
+
+        return elevation > 2500 && slope < 1 && slope > 0.9;
+
+    }
+
+    /**
+     * Criteria for stone areas.
+     *
+     * @param elevation
+     *            the elevation
+     * @param slope
+     *            the slope
+     * @return true if the point is made of stone
+     */
+    public static boolean isStone(double elevation, double slope) {
+
+        return slope > 0.8 && elevation > 1900 || slope > 0.9;
+
+    }
+
+    // private functions
+
+    private static int clamp(int v, int size) {
+
+        return max(0, min(v, size - 1));
+
+    }
+
+    /**
+     * Counts the flat samples with the same elevation as the sample (x, y)
+     * among the eight samples at the given horizontal and vertical offsets
+     * (clamped to the panorama).
+     */
+    private static int flatAround(float[] slope, float[] elevation, int width,
+            int height, int x, int y, int dx, int dy) {
+
+        int xLeft = clamp(x - dx, width);
+        int xRight = clamp(x + dx, width);
+        int yTop = clamp(y - dy, height);
+        int yBottom = clamp(y + dy, height);
+        float e = elevation[y * width + x];
+
+        return flat(slope, elevation, yTop * width + xLeft, e)
+                + flat(slope, elevation, y * width + xLeft, e)
+                + flat(slope, elevation, yBottom * width + xLeft, e)
+                + flat(slope, elevation, yTop * width + x, e)
+                + flat(slope, elevation, yBottom * width + x, e)
+                + flat(slope, elevation, yTop * width + xRight, e)
+                + flat(slope, elevation, y * width + xRight, e)
+                + flat(slope, elevation, yBottom * width + xRight, e);
+
+    }
+
+    private static int flat(float[] slope, float[] elevation, int i,
+            float e) {
+
+        return slope[i] < FLAT && elevation[i] == e ? 1 : 0;
+
+    }
+
+}
@@ -0,0 +1,79 @@
+package ch.epfl.alpano.gui;
+
+/**
+ * The view modes of the panoramas, each one with its image painter.
+ * 
+ * @author Natal Willisch (262092)
+ *
+ */
+public enum ViewMode {
+
+    // enumeration
+    RAINBOW("Rainbow"),
+    PHOTOREALISTIC("photorealistic"),
+    HISTORIC("historic"),
+    NIGHT("night"),
+    GRAY("gray"),
+    SKETCH("sketch"),
+    ISOHYPSES("lig. de hauteur (d = 200m)");
+
+    private final String title;
+
+    /**
+     * Constructor
+     * 
+     * @param title
+     *            title of the mode in the menu
+     */
+    private ViewMode(String title) {
+        this.title = title;
+    }
+
+    /**
+     * Returns the title of the mode in the menu.
+     * 
+     * @return the title
+     */
+    public String title() {
+        return title;
+    }
+
+    /**
+     * Returns true if the labels are drawn in white on the painting of this
+     * mode (black otherwise).
+     * 
+     * @return true for white labels
+     */
+    public boolean whiteLabels() {
+        return this == NIGHT;
+    }
+
+    /**
+     * Returns the image painter of this mode for the given layers.
+     * 
+     * @param layers
+     *            the layers of a panorama
+     * @return the ImagePainter
+     */
+    public ImagePainter painter(PanoramaLayers layers) {
+        switch (this) {
+        case RAINBOW:
+            return ImagePainter.rainbow(layers);
+        case PHOTOREALISTIC:
+            return ImagePainter.photorealisticBlue(layers);
+        case HISTORIC:
+            return ImagePainter.photorealisticHisto(layers);
+        case NIGHT:
+            return ImagePainter.photorealisticNight(layers);
+        case GRAY:
+            return ImagePainter.grayish(layers);
+        case SKETCH:
+            return ImagePainter.draw(layers);
+        case ISOHYPSES:
+            return ImagePainter.layer(layers);
+        default:
+            throw new Error(); // all modes are handled above
+        }
+    }
+
+}
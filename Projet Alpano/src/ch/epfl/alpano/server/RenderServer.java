@@ -0,0 +1,541 @@
+package ch.epfl.alpano.server;
+
+import static ch.epfl.alpano.Preconditions.checkArgument;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import ch.epfl.alpano.Panorama;
+import ch.epfl.alpano.Panorama.Channel;
+import ch.epfl.alpano.PanoramaCache;
+import ch.epfl.alpano.PanoramaComputer;
+import ch.epfl.alpano.batch.BatchJob;
+import ch.epfl.alpano.batch.BatchRenderer;
+import ch.epfl.alpano.dem.ContinuousElevationModel;
+import ch.epfl.alpano.dem.DiscreteElevationModel;
+import ch.epfl.alpano.export.PngWriter;
+import ch.epfl.alpano.gui.PanoramaLayers;
+import ch.epfl.alpano.gui.PanoramaUserParameters;
+import ch.epfl.alpano.gui.ViewMode;
+
+/**
+ * A local HTTP service that renders panoramas without user-interface (and
+ * without javafx). The parameters of a panorama are given in the query, with
+ * the keys of {@link BatchJob}:
+ * 
+ * <pre>
+ * GET /panorama?observer_longitude=76500&amp;...&amp;mode=night
+ * GET /channel?observer_longitude=76500&amp;...&amp;channel=elevation
+ * </pre>
+ * 
+ * The first one returns the image of the panorama in PNG, the second one the
+ * samples of a channel of the (supersampled) panorama, line by line, as
+ * little-endian floats; its size is given in the headers {@code X-Width} and
+ * {@code X-Height}.
+ * <p>
+ * The panoramas are computed by a shared computer and kept in a cache. A
+ * response (the panorama and its rendering) is made in one work by a fixed
+ * number of threads with a bounded queue: a request that finds the queue
+ * full, or that waits more than {@value #TIMEOUT} seconds for its response,
+ * is refused with the status 503. Identical requests that arrive while
+ * their response is being made wait for the same response, and requests for
+ * the same panorama wait for the same computation.
+ *
+ * @author Natal Willisch (262092)
+ *
+ */
+public final class RenderServer {
+
+    /**
+     * Default port of the service
+     */
+    public static final int PORT = 8080;
+
+    /**
+     * Maximal time in seconds a request waits for its response
+     */
+    public static final int TIMEOUT = 60;
+
+    private static final String MODE = "mode";
+    private static final String CHANNEL = "channel";
+    private static final long CACHE_SIZE = 1L << 28; // bytes of cached panoramas
+
+    private final PanoramaComputer computer;
+    private final ThreadPoolExecutor workers;
+    private final Map<PanoramaUserParameters, CompletableFuture<Panorama>> panoramas = new ConcurrentHashMap<>();
+    private final Map<List<Object>, CompletableFuture<Response>> responses = new ConcurrentHashMap<>();
+    private HttpServer server;
+
+    /**
+     * Constructs a (not started) service.
+     *
+     * @param dem
+     *            the elevation model
+     * @param cache
+     *            cache of the computed panoramas (or null)
+     * @param threads
+     *            number of threads that compute and render the panoramas
+     * @param queueSize
+     *            maximal number of works waiting for a thread
+     * @throws NullPointerException
+     *             if {@code dem} is null
+     * @throws IllegalArgumentException
+     *             if the number of threads is not positive or the size of the
+     *             queue is negative
+     */
+    public RenderServer(ContinuousElevationModel dem, PanoramaCache cache,
+            int threads, int queueSize) {
+
+        checkArgument(threads > 0, "threads is not positive");
+        checkArgument(queueSize >= 0, "negative queue size");
+
+        AtomicInteger count = new AtomicInteger();
+
+        this.computer = new PanoramaComputer(dem, cache);
+        this.workers = new ThreadPoolExecutor(threads, threads, 0,
+                TimeUnit.SECONDS,
+                queueSize == 0 ? new SynchronousQueue<>()
+                        : new ArrayBlockingQueue<>(queueSize),
+                r -> {
+                    Thread t = new Thread(r,
+                            "panorama worker " + count.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                });
+
+    }
+
+    /**
+     * Starts the service on an address. The requests are received by as many
+     * threads as the works that can be accepted; they only wait for the
+     * workers.
+     *
+     * @param address
+     *            the address (use the loopback address to keep the service
+     *            local)
+     * @throws IOException
+     *             if the address can not be bound
+     * @throws IllegalStateException
+     *             if the service is already started
+     */
+    public synchronized void start(InetSocketAddress address)
+            throws IOException {
+
+        if (server != null)
+            throw new IllegalStateException("service already started");
+
+        ExecutorService receivers = Executors.newFixedThreadPool(
+                workers.getMaximumPoolSize()
+                        + workers.getQueue().remainingCapacity());
+
+        server = HttpServer.create(address, 0);
+        server.createContext("/panorama", e -> handle(e, false));
+        server.createContext("/channel", e -> handle(e, true));
+        server.setExecutor(receivers);
+        server.start();
+
+    }
+
+    /**
+     * Returns the address of the started service.
+     *
+     * @return the address
+     * @throws IllegalStateException
+     *             if the service is not started
+     */
+    public synchronized InetSocketAddress address() {
+
+        if (server == null)
+            throw new IllegalStateException("service not started");
+        return server.getAddress();
+
+    }
+
+    /**
+     * Stops the service: waits at most the given delay for the current
+     * exchanges, then stops the threads.
+     *
+     * @param delay
+     *            the delay in seconds
+     */
+    public synchronized void stop(int delay) {
+
+        if (server != null) {
+            server.stop(delay);
+            ((ExecutorService) server.getExecutor()).shutdownNow();
+            server = null;
+        }
+        workers.shutdownNow();
+
+    }
+
+    /**
+     * Launches the service on the loopback address.
+     * 
+     * <pre>
+     * java ch.epfl.alpano.server.RenderServer [-dem directory] [-port n]
+     *         [-threads n] [-queue n]
+     * </pre>
+     *
+     * @param args
+     *            the arguments
+     */
+    public static void main(String[] args) {
+
+        File demDirectory = new File(".");
+        int port = PORT;
+        int threads = Runtime.getRuntime().availableProcessors();
+        int queueSize = 4 * threads;
+
+        try {
+            for (int i = 0; i < args.length; i += 2) {
+                checkArgument(i + 1 < args.length,
+                        "missing value of " + args[i]);
+                switch (args[i]) {
+                case "-dem":
+                    demDirectory = new File(args[i + 1]);
+                    break;
+                case "-port":
+                    port = Integer.parseInt(args[i + 1]);
+                    break;
+                case "-threads":
+                    threads = Integer.parseInt(args[i + 1]);
+                    break;
+                case "-queue":
+                    queueSize = Integer.parseInt(args[i + 1]);
+                    break;
+                default:
+                    throw new IllegalArgumentException(
+                            "unknown option: " + args[i]);
+                }
+            }
+            checkArgument(threads > 0 && queueSize >= 0,
+                    "invalid number of threads or size of queue");
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println("usage: java " + RenderServer.class.getName()
+                    + " [-dem directory] [-port n] [-threads n] [-queue n]");
+            System.exit(2);
+        }
+
+        try {
+            DiscreteElevationModel dem = BatchRenderer.loadDem(demDirectory);
+            RenderServer service = new RenderServer(
+                    new ContinuousElevationModel(dem),
+                    new PanoramaCache(PanoramaCache.fingerprint(demDirectory
+                            .listFiles((d, name) -> name.endsWith(".hgt"))),
+                            CACHE_SIZE),
+                    threads, queueSize);
+
+            service.start(new InetSocketAddress(
+                    InetAddress.getLoopbackAddress(), port));
+            System.out.println("listening on " + service.address());
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+            System.exit(1);
+        }
+
+    }
+
+    /**
+     * The response to a request: its content type and its content.
+     */
+    private static final class Response {
+
+        private final String type;
+        private final byte[] content;
+        private final int width;
+        private final int height;
+
+        private Response(String type, byte[] content, int width, int height) {
+
+            this.type = type;
+            this.content = content;
+            this.width = width;
+            this.height = height;
+
+        }
+
+    }
+
+    // private functions
+
+    private void handle(HttpExchange exchange, boolean channel)
+            throws IOException {
+
+        try {
+            if (!exchange.getRequestMethod().equals("GET")) {
+                error(exchange, 405, "only GET is supported");
+                return;
+            }
+
+            Map<String, String> values = query(
+                    exchange.getRequestURI().getRawQuery());
+            PanoramaUserParameters parameters;
+            CompletableFuture<Response> response;
+
+            if (channel) {
+                Channel c = channel(values.remove(CHANNEL));
+                parameters = parameters(values);
+                response = response(Arrays.asList(c, parameters), parameters,
+                        p -> channelResponse(p, c));
+            } else {
+                ViewMode mode = BatchJob.mode(values.remove(MODE));
+                parameters = parameters(values);
+                response = response(Arrays.asList(mode, parameters),
+                        parameters, p -> imageResponse(p, mode));
+            }
+
+            Response r = response.get(TIMEOUT, TimeUnit.SECONDS);
+
+            exchange.getResponseHeaders().set("Content-Type", r.type);
+            exchange.getResponseHeaders().set("X-Width",
+                    Integer.toString(r.width));
+            exchange.getResponseHeaders().set("X-Height",
+                    Integer.toString(r.height));
+            exchange.sendResponseHeaders(200, r.content.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(r.content);
+            }
+
+        } catch (IllegalArgumentException e) {
+            error(exchange, 400, e.getMessage());
+        } catch (RejectedExecutionException e) {
+            error(exchange, 503, "too many requests");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RejectedExecutionException)
+                error(exchange, 503, "too many requests");
+            else
+                error(exchange, 500, String.valueOf(e.getCause()));
+        } catch (TimeoutException e) {
+            error(exchange, 503, "response not ready in time");
+        } catch (InterruptedException e) {
+            error(exchange, 503, "service stopped");
+        } finally {
+            exchange.close();
+        }
+
+    }
+
+    /**
+     * Returns the response of a request, which is made by a worker from the
+     * panorama of the request, or the one that is already being made for an
+     * identical request. The panorama and its rendering are made in the same
+     * work, so an accepted request is not refused between both.
+     */
+    private CompletableFuture<Response> response(List<Object> key,
+            PanoramaUserParameters parameters, Renderer renderer) {
+
+        return coalesced(responses, key, () -> CompletableFuture.supplyAsync(
+                () -> renderer.render(panorama(parameters)), workers));
+
+    }
+
+    /**
+     * Returns the panorama of the given parameters: computes it (or takes it
+     * from the cache), or waits for the worker that is already computing it.
+     */
+    private Panorama panorama(PanoramaUserParameters parameters) {
+
+        CompletableFuture<Panorama> f = new CompletableFuture<>();
+        CompletableFuture<Panorama> other = panoramas.putIfAbsent(parameters,
+                f);
+
+        if (other != null)
+            return other.join();
+
+        try {
+            Panorama panorama = computer
+                    .computePanorama(parameters.panoramaParameters());
+
+            f.complete(panorama);
+            return panorama;
+
+        } catch (RuntimeException e) {
+            f.completeExceptionally(e);
+            throw e;
+        } finally {
+            // the next requests take the panorama from the cache
+            panoramas.remove(parameters, f);
+        }
+
+    }
+
+    /**
+     * Returns the running work of a key, or starts it if there is none. The
+     * work is removed from the running ones when it is completed; a work that
+     * can not be started (the queue is full) is completed with the
+     * exception.
+     */
+    private static <K, V> CompletableFuture<V> coalesced(
+            Map<K, CompletableFuture<V>> running, K key,
+            Supplier<CompletableFuture<V>> start) {
+
+        CompletableFuture<V> f = new CompletableFuture<>();
+        CompletableFuture<V> other = running.putIfAbsent(key, f);
+
+        if (other != null)
+            return other;
+
+        f.whenComplete((v, e) -> running.remove(key, f));
+        try {
+            start.get().whenComplete((v, e) -> {
+                if (e == null)
+                    f.complete(v);
+                else
+                    f.completeExceptionally(e);
+            });
+        } catch (RuntimeException e) {
+            f.completeExceptionally(e);
+        }
+
+        return f;
+
+    }
+
+    private static Response imageResponse(Panorama panorama, ViewMode mode) {
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        try {
+            PngWriter.write(panorama,
+                    mode.painter(new PanoramaLayers(panorama)), out);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        return new Response("image/png", out.toByteArray(),
+                panorama.parameters().width(),
+                panorama.parameters().height());
+
+    }
+
+    private static Response channelResponse(Panorama panorama,
+            Channel channel) {
+
+        float[] values = panorama.channelValues(channel);
+        ByteBuffer b = ByteBuffer.allocate(Float.BYTES * values.length)
+                .order(ByteOrder.LITTLE_ENDIAN);
+
+        b.asFloatBuffer().put(values);
+
+        return new Response("application/octet-stream", b.array(),
+                panorama.parameters().width(),
+                panorama.parameters().height());
+
+    }
+
+    private static Channel channel(String name) {
+
+        if (name == null)
+            throw new IllegalArgumentException("missing parameter: channel");
+
+        try {
+            return Channel.valueOf(name.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("unknown channel: " + name);
+        }
+
+    }
+
+    private static PanoramaUserParameters parameters(
+            Map<String, String> values) {
+
+        PanoramaUserParameters parameters = BatchJob.parameters(values);
+
+        if (!values.isEmpty())
+            throw new IllegalArgumentException(
+                    "unknown keys: " + values.keySet());
+        return parameters;
+
+    }
+
+    /**
+     * Returns the values of a query by key (in lower case).
+     */
+    private static Map<String, String> query(String query) {
+
+        Map<String, String> values = new HashMap<>();
+
+        if (query == null || query.isEmpty())
+            return values;
+
+        for (String pair : query.split("&")) {
+            int equal = pair.indexOf('=');
+
+            if (equal <= 0 || values.put(
+                    decode(pair.substring(0, equal)).toLowerCase(Locale.ROOT),
+                    decode(pair.substring(equal + 1))) != null)
+                throw new IllegalArgumentException("invalid pair: " + pair);
+        }
+
+        return values;
+
+    }
+
+    private static String decode(String s) {
+
+        try {
+            return URLDecoder.decode(s, StandardCharsets.UTF_8.name());
+        } catch (UnsupportedEncodingException e) {
+            throw new Error(e);
+        }
+
+    }
+
+    private static void error(HttpExchange exchange, int status,
+            String message) throws IOException {
+
+        byte[] content = (message + "\n").getBytes(StandardCharsets.UTF_8);
+
+        exchange.getResponseHeaders().set("Content-Type",
+                "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(status, content.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(content);
+        }
+
+    }
+
+    /**
+     * Makes the response of a request from its panorama.
+     */
+    @FunctionalInterface
+    private interface Renderer {
+
+        Response render(Panorama panorama);
+
+    }
+
+}
@@ -1,8 +1,15 @@
 package ch.epfl.alpano.summit;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 import ch.epfl.alpano.GeoPoint;
 
@@ -10,104 +17,366 @@ import ch.epfl.alpano.GeoPoint;
  * This class reads a files that describe the summits of the mountains, for that
  * this class only provides one public method that read the file in a list of
  * {@link Summit}s.
+ * 
+ * The file is mapped in the memory and its lines are parsed directly from the
+ * bytes at the fixed columns of the format (longitude in the columns 0 to 8,
+ * latitude in 10 to 17, elevation in 19 to 23 and the name from the column
+ * 36), so the only object allocated per summit besides the summit itself is
+ * its name. Large files are cut at line ends in chunks of about
+ * {@value #CHUNK_SIZE} bytes that are parsed in parallel.
  *
  */
 public final class GazetteerParser {
 
+    private static final int LONGITUDE = 0;
+    private static final int LATITUDE = 10;
+    private static final int ELEVATION = 19;
+    private static final int NAME = 36;
+
+    /**
+     * Size in bytes of the chunks of a file parsed in parallel
+     */
+    public static final int CHUNK_SIZE = 1 << 20;
+
     // private constructor
     private GazetteerParser() {
     }
 
     /**
-     * Read a file in a list of {@link Summit}s.
+     * Read a file in a list of {@link Summit}s (large files are parsed in
+     * parallel in the common fork-join pool).
      * 
      * @param file
      *            a file
      * @return a list of {@link Summit}s
      * @throws IOException
-     *             If something is wrong with the content of the file or the
-     *             opening of the file fails.
+     *             If something is wrong with the content of the file (the
+     *             message then contains the number of the line) or the opening
+     *             of the file fails.
+     * @throws IllegalArgumentException
+     *             if the position of a summit is out of range (see
+     *             {@link GeoPoint})
      * @see GazetteerParser#summit for more details
      */
     public static List<Summit> readSummitsFrom(File file) throws IOException {
 
-        List<Summit> list = new ArrayList<Summit>();
-        String line = null;
+        return readSummitsFrom(file, ForkJoinPool.commonPool());
+
+    }
+
+    /**
+     * Read a file in a list of {@link Summit}s, the chunks of the file are
+     * parsed in parallel in the given pool. If several lines are not valid,
+     * the exception is the one of the first invalid line (as for a sequential
+     * parsing).
+     * 
+     * @param file
+     *            a file
+     * @param pool
+     *            the pool that parses the chunks
+     * @return a list of {@link Summit}s
+     * @throws IOException
+     *             If something is wrong with the content of the file (the
+     *             message then contains the number of the line) or the opening
+     *             of the file fails.
+     * @throws IllegalArgumentException
+     *             if the position of a summit is out of range (see
+     *             {@link GeoPoint})
+     * @see GazetteerParser#summit for more details
+     */
+    public static List<Summit> readSummitsFrom(File file, ForkJoinPool pool)
+            throws IOException {
+
+        Objects.requireNonNull(pool, "pool is null");
+
+        try (FileChannel in = new FileInputStream(file).getChannel()) {
+            if (in.size() > Integer.MAX_VALUE)
+                throw new IOException("file too large to be mapped");
+
+            ByteBuffer bytes = in.map(MapMode.READ_ONLY, 0, in.size());
+            List<Callable<Chunk>> tasks = new ArrayList<>();
 
-        try (BufferedReader s = new BufferedReader(new InputStreamReader(
-                new FileInputStream(file), StandardCharsets.US_ASCII))) {
-            while (null != (line = s.readLine())) {
-                list.add(summit(line));
+            for (int start = 0; start < bytes.limit();) {
+                int from = start;
+                int to = chunkEnd(bytes, from);
+
+                tasks.add(() -> new Chunk(bytes, from, to));
+                start = to;
+            }
+
+            List<Summit> list = new ArrayList<Summit>();
+            int lines = 0;
+
+            for (Future<Chunk> f : pool.invokeAll(tasks)) {
+                Chunk chunk = f.get();
+
+                if (chunk.error != null)
+                    throw error(lines + chunk.error.line, chunk.error.reason);
+                list.addAll(chunk.summits);
+                lines += chunk.lines;
             }
-        } catch (FileNotFoundException e) {
-            throw new IOException();
+
+            return Collections.unmodifiableList(list);
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("parsing interrupted");
+        } catch (ExecutionException e) {
+            // the chunks only throw unchecked exceptions or errors
+            if (e.getCause() instanceof Error)
+                throw (Error) e.getCause();
+            throw (RuntimeException) e.getCause();
+        }
+
+    }
+
+    // private functions
+
+    /**
+     * The summits of a chunk of lines, with the number of lines or the first
+     * invalid line (numbered from 1 in the chunk).
+     */
+    private static final class Chunk {
+
+        private final List<Summit> summits = new ArrayList<>();
+        private final int lines;
+        private final LineException error;
+
+        Chunk(ByteBuffer bytes, int from, int to) {
+
+            int lines = 0;
+            LineException error = null;
+
+            try {
+                lines = parse(bytes, from, to, 1, summits);
+            } catch (LineException e) {
+                error = e;
+            }
+
+            this.lines = lines;
+            this.error = error;
+
+        }
+
+    }
+
+    /**
+     * Exception of an invalid line, which keeps its number and the reason to
+     * number it again in the whole file.
+     */
+    @SuppressWarnings("serial")
+    private static final class LineException extends IOException {
+
+        private final int line;
+        private final String reason;
+
+        LineException(int line, String reason) {
+
+            super("line " + line + ": " + reason);
+            this.line = line;
+            this.reason = reason;
+
+        }
+
+    }
+
+    /**
+     * Returns the end of the chunk that starts at a position: the end of the
+     * line that contains the byte {@value #CHUNK_SIZE} bytes after the start
+     * (including its line terminator), or the end of the buffer.
+     */
+    private static int chunkEnd(ByteBuffer bytes, int from) {
+
+        int end = from + CHUNK_SIZE;
+
+        if (end >= bytes.limit() - 1)
+            return bytes.limit();
+        while (end < bytes.limit() && bytes.get(end) != '\n'
+                && bytes.get(end) != '\r')
+            end++;
+        if (end < bytes.limit() - 1 && bytes.get(end) == '\r'
+                && bytes.get(end + 1) == '\n')
+            end++;
+
+        return Math.min(bytes.limit(), end + 1);
+
+    }
+
+    /**
+     * Parses the lines between two positions of a buffer (the lines end with
+     * "\n", "\r" or "\r\n", the last one may end without line terminator).
+     * 
+     * @param bytes
+     *            content of a file
+     * @param from
+     *            position of the first line
+     * @param to
+     *            end of the last line
+     * @param firstLine
+     *            number of the first line in the file
+     * @param summits
+     *            list that receives the summits
+     * @return the number of lines
+     * @throws LineException
+     *             if a line is not valid
+     */
+    private static int parse(ByteBuffer bytes, int from, int to,
+            int firstLine, List<Summit> summits) throws LineException {
+
+        byte[] name = new byte[64];
+        int line = firstLine;
+        int start = from;
+
+        while (start < to) {
+            int end = start;
+
+            while (end < to && bytes.get(end) != '\n' && bytes.get(end) != '\r')
+                end++;
+            if (end - start - NAME > name.length)
+                name = new byte[2 * (end - start - NAME)];
+
+            summits.add(summit(bytes, start, end, line, name));
+
+            start = end + 1;
+            if (end < to && bytes.get(end) == '\r' && start < to
+                    && bytes.get(start) == '\n')
+                start++;
+            line++;
         }
 
-        return Collections.unmodifiableList(list);
+        return line - firstLine;
 
     }
 
     /**
      * Reads a line of a file and extracts the data.
      * 
+     * @param bytes
+     *            content of a file
+     * @param start
+     *            position of the line
+     * @param end
+     *            end of the line
      * @param line
-     *            a line of a file as a String
+     *            number of the line in the file
+     * @param name
+     *            buffer for the bytes of the name
      * @return data in form of a {@link Summit}-object
      * @throws IOException
      *             if the content is not as expected
+     * @throws IllegalArgumentException
+     *             if the position is out of range
      */
-    private static Summit summit(String line) throws IOException {
-
-        double longitude = 0, latitude = 0;
-        int elevation = 0;
-
-        try {
-            String longitudeDMS = line.substring(0, 9);
-            String latitudeDMS = line.substring(10, 18);
+    private static Summit summit(ByteBuffer bytes, int start, int end,
+            int line, byte[] name) throws LineException {
 
-            longitude = angel(longitudeDMS);
-            latitude = angel(latitudeDMS);
-            elevation = Integer.parseInt(line.substring(19, 24).trim());
+        if (end - start <= NAME)
+            throw error(line, "line too short");
 
-            String name = line.substring(36);
+        double longitude = angle(bytes, start + LONGITUDE, start + 9, line);
+        double latitude = angle(bytes, start + LATITUDE, start + 18, line);
+        int elevation = integer(bytes, start + ELEVATION, start + 24, true,
+                line);
 
-            if (name.trim().length() < 1)
-                throw new IOException();
+        boolean blank = true;
 
-            return new Summit(name, new GeoPoint(longitude, latitude),
-                    elevation);
-
-        } catch (NumberFormatException | IndexOutOfBoundsException e) {
-            throw new IOException();
+        for (int i = start + NAME; i < end; i++) {
+            name[i - start - NAME] = bytes.get(i);
+            blank &= (bytes.get(i) & 0xFF) <= ' ';
         }
+        if (blank)
+            throw error(line, "no name");
+
+        // a position out of range throws an IllegalArgumentException
+        return new Summit(
+                new String(name, 0, end - start - NAME,
+                        StandardCharsets.US_ASCII),
+                new GeoPoint(longitude, latitude), elevation);
 
     }
 
     /**
-     * @param angle
-     *            angle in deg:min:sec-format
+     * @param bytes
+     *            content of a file
+     * @param from
+     *            start of the angle in deg:min:sec-format
+     * @param to
+     *            end of the angle
+     * @param line
+     *            number of the line
      * @return angle as simple radian
      * @throws IOException
      *             if the format of the angle is not valid
      */
-    private static double angel(String angle) throws IOException {
+    private static double angle(ByteBuffer bytes, int from, int to, int line)
+            throws LineException {
+
+        int first = -1, second = -1, end = to;
+
+        for (int i = from; i < to; i++) {
+            if (bytes.get(i) == ':') {
+                if (first < 0)
+                    first = i;
+                else if (second < 0)
+                    second = i;
+                else if (end == to)
+                    end = i; // trailing colons are ignored
+            } else if (end < to)
+                throw error(line, "invalid angle");
+        }
+        if (second < 0)
+            throw error(line, "invalid angle");
 
-        String[] dms = angle.split(":");
+        int degrees = integer(bytes, from, first, true, line);
+        int minutes = integer(bytes, first + 1, second, false, line);
+        int seconds = integer(bytes, second + 1, end, false, line);
 
-        if (dms.length != 3)
-            throw new IOException();
+        if (minutes < 0 || seconds < 0)
+            throw error(line, "invalid angle");
 
-        int[] dmsInInt = new int[3];
+        return Math.toRadians(degrees + (minutes + seconds / 60.) / 60.);
 
-        dmsInInt[0] = Integer.parseInt(dms[0].trim());
-        for (int i = 1; i <= 2; i++) {
-            dmsInInt[i] = Integer.parseInt(dms[i]);
-            if (dmsInInt[i] < 0)
-                throw new IOException();
+    }
+
+    /**
+     * Parses a decimal integer with an optional sign (surrounded by spaces if
+     * {@code trim} is true).
+     */
+    private static int integer(ByteBuffer bytes, int from, int to,
+            boolean trim, int line) throws LineException {
+
+        if (trim) {
+            while (from < to && (bytes.get(from) & 0xFF) <= ' ')
+                from++;
+            while (to > from && (bytes.get(to - 1) & 0xFF) <= ' ')
+                to--;
         }
-        return Math.toRadians(
-                dmsInInt[0] + (dmsInInt[1] + dmsInInt[2] / 60.) / 60.);
-        
+
+        boolean negative = from < to && bytes.get(from) == '-';
+
+        if (from < to && (negative || bytes.get(from) == '+'))
+            from++;
+        if (from == to)
+            throw error(line, "invalid number");
+
+        int value = 0;
+
+        for (int i = from; i < to; i++) {
+            int digit = bytes.get(i) - '0';
+
+            if (digit < 0 || digit > 9)
+                throw error(line, "invalid number");
+            value = 10 * value + digit;
+        }
+
+        return negative ? -value : value;
+
+    }
+
+    private static LineException error(int line, String reason) {
+
+        return new LineException(line, reason);
+
     }
 
 }
@@ -0,0 +1,260 @@
+package ch.epfl.alpano.summit;
+
+import static ch.epfl.alpano.Preconditions.checkArgument;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * This class stores lists of summits in a compact binary file that is read
+ * much faster than a gazetteer. A file starts with a header of
+ * {@value #HEADER_SIZE} bytes (which also contains the size and the date of
+ * modification of the gazetteer the summits are read from), followed by
+ * little-endian ints: the longitudes and the latitudes of the summits in
+ * seconds of arc, their elevations and the offsets of their names in the
+ * table of names, which ends the file (names in UTF-8, one after the other).
+ *
+ * @author Natal Willisch (262092)
+ *
+ */
+public final class SummitCache {
+
+    /**
+     * Size of the header in bytes
+     */
+    public static final int HEADER_SIZE = 32;
+
+    private static final int MAGIC = 0x4D535041; // "APSM" in little-endian
+    private static final int VERSION = 1;
+    private static final int SECONDS_PER_DEGREE = 3600;
+    private static final double TOLERANCE = 1e-6; // in seconds of arc
+
+    // private constructor
+    private SummitCache() {
+    }
+
+    /**
+     * Reads the summits of a gazetteer from a cache file if the cache was
+     * written from the current version of the gazetteer, otherwise reads the
+     * gazetteer (see {@link GazetteerParser#readSummitsFrom(File)}) and
+     * writes the cache. Failing to write the cache is not an error. The
+     * summits read from the cache are stored in a {@link SummitTable}, whose
+     * view is returned.
+     *
+     * @param gazetteer
+     *            the gazetteer
+     * @param cache
+     *            the cache file
+     * @return the (unmodifiable) list of the summits
+     * @throws IOException
+     *             if the gazetteer can not be read or is not valid
+     */
+    public static List<Summit> readSummitsFrom(File gazetteer, File cache)
+            throws IOException {
+
+        long length = gazetteer.length();
+        long modified = gazetteer.lastModified();
+
+        if (cache.isFile()) {
+            try {
+                return read(cache, length, modified);
+            } catch (IOException e) {
+                // an invalid or outdated cache is read again from the gazetteer
+            }
+        }
+
+        List<Summit> summits = GazetteerParser.readSummitsFrom(gazetteer);
+        File temporary = new File(cache.getPath() + ".tmp");
+
+        try {
+            write(summits, temporary, length, modified);
+            if (!temporary.renameTo(cache))
+                temporary.delete();
+        } catch (IOException | IllegalArgumentException e) {
+            temporary.delete();
+        }
+
+        return summits;
+
+    }
+
+    /**
+     * Writes a list of summits in a cache file (an existing file is
+     * overwritten).
+     *
+     * @param summits
+     *            the summits
+     * @param file
+     *            the destination file
+     * @throws IOException
+     *             if the file can not be written
+     * @throws IllegalArgumentException
+     *             if the position of a summit is not a whole number of
+     *             seconds of arc (as the positions of a gazetteer)
+     */
+    public static void write(List<Summit> summits, File file)
+            throws IOException {
+
+        write(summits, file, 0, 0);
+
+    }
+
+    /**
+     * Reads a list of summits from a cache file. The summits are read in a
+     * {@link SummitTable}, whose view is returned.
+     *
+     * @param file
+     *            the cache file
+     * @return the (unmodifiable) list of the summits
+     * @throws IOException
+     *             if the file can not be read or is not a valid cache file
+     */
+    public static List<Summit> read(File file) throws IOException {
+
+        return read(file, -1, -1);
+
+    }
+
+    // private functions
+
+    private static void write(List<Summit> summits, File file,
+            long sourceLength, long sourceModified) throws IOException {
+
+        int n = summits.size();
+        byte[][] names = new byte[n][];
+        int nameBytes = 0;
+
+        for (int i = 0; i < n; i++) {
+            names[i] = summits.get(i).name().getBytes(StandardCharsets.UTF_8);
+            nameBytes += names[i].length;
+        }
+
+        ByteBuffer b = ByteBuffer
+                .allocate(HEADER_SIZE + Integer.BYTES * (4 * n + 1)
+                        + nameBytes)
+                .order(ByteOrder.LITTLE_ENDIAN);
+
+        b.putInt(MAGIC).putInt(VERSION).putInt(n).putInt(nameBytes)
+                .putLong(sourceLength).putLong(sourceModified);
+        for (Summit s : summits)
+            b.putInt(seconds(s.position().longitude()));
+        for (Summit s : summits)
+            b.putInt(seconds(s.position().latitude()));
+        for (Summit s : summits)
+            b.putInt(s.elevation());
+
+        int offset = 0;
+        for (byte[] name : names) {
+            b.putInt(offset);
+            offset += name.length;
+        }
+        b.putInt(offset);
+        for (byte[] name : names)
+            b.put(name);
+        b.flip();
+
+        try (FileChannel out = new FileOutputStream(file).getChannel()) {
+            while (b.hasRemaining())
+                out.write(b);
+        }
+
+    }
+
+    /**
+     * Reads a cache file, and checks the size and date of modification of
+     * its gazetteer unless they are negative.
+     */
+    private static List<Summit> read(File file, long sourceLength,
+            long sourceModified) throws IOException {
+
+        try (FileChannel in = new FileInputStream(file).getChannel()) {
+            if (in.size() < HEADER_SIZE || in.size() > Integer.MAX_VALUE)
+                throw new IOException("invalid file-size");
+
+            ByteBuffer b = in.map(MapMode.READ_ONLY, 0, in.size())
+                    .order(ByteOrder.LITTLE_ENDIAN);
+
+            if (b.getInt() != MAGIC)
+                throw new IOException("not a summit cache file");
+            if (b.getInt() != VERSION)
+                throw new IOException("unsupported version");
+
+            int n = b.getInt();
+            int nameBytes = b.getInt();
+            long length = b.getLong();
+            long modified = b.getLong();
+
+            if (sourceLength >= 0 && sourceModified >= 0
+                    && (length != sourceLength || modified != sourceModified))
+                throw new IOException("outdated cache");
+            if (n < 0 || nameBytes < 0 || in.size() != HEADER_SIZE
+                    + Integer.BYTES * (4L * n + 1) + nameBytes)
+                throw new IOException("invalid file-size");
+
+            IntBuffer ints = b.asIntBuffer();
+            double[] longitudes = new double[n];
+            double[] latitudes = new double[n];
+            int[] elevations = new int[n];
+            int[] nameOffsets = new int[n + 1];
+            byte[] names = new byte[nameBytes];
+
+            for (int i = 0; i < n; i++) {
+                longitudes[i] = angle(ints.get(i));
+                latitudes[i] = angle(ints.get(n + i));
+            }
+            ints.position(2 * n);
+            ints.get(elevations);
+            ints.get(nameOffsets);
+            b.position(HEADER_SIZE + Integer.BYTES * (4 * n + 1));
+            b.get(names);
+
+            try {
+                return new SummitTable(longitudes, latitudes, elevations,
+                        nameOffsets, names).asList();
+            } catch (IllegalArgumentException e) {
+                throw new IOException("invalid summits", e);
+            }
+        }
+
+    }
+
+    /**
+     * Converts an angle to a number of seconds of arc (so that
+     * {@link #angle(int)} gives back the angle).
+     */
+    private static int seconds(double angle) {
+
+        double seconds = Math.toDegrees(angle) * SECONDS_PER_DEGREE;
+        long rounded = Math.round(seconds);
+
+        checkArgument(Math.abs(seconds - rounded) <= TOLERANCE,
+                "position not on a second of arc");
+
+        return (int) rounded;
+
+    }
+
+    /**
+     * Converts a number of seconds of arc to an angle, in the same way as the
+     * gazetteer parser converts deg:min:sec.
+     */
+    private static double angle(int seconds) {
+
+        int degrees = Math.floorDiv(seconds, SECONDS_PER_DEGREE);
+        int minutes = Math.floorMod(seconds, SECONDS_PER_DEGREE) / 60;
+
+        return Math.toRadians(
+                degrees + (minutes + Math.floorMod(seconds, 60) / 60.) / 60.);
+
+    }
+
+}
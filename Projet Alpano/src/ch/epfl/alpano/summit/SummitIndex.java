@@ -0,0 +1,461 @@
+package ch.epfl.alpano.summit;
+
+import static ch.epfl.alpano.Preconditions.checkArgument;
+import static java.lang.Math.PI;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+
+import ch.epfl.alpano.Azimuth;
+import ch.epfl.alpano.Distance;
+import ch.epfl.alpano.GeoPoint;
+import ch.epfl.alpano.Math2;
+import ch.epfl.alpano.Sorting;
+
+/**
+ * A spatial index over a list of summits. The summits are sorted in the cells
+ * of a regular longitude/latitude grid, so the summits around a point are
+ * found by visiting only the cells that intersect the circle around it. An
+ * observer view ({@link View}) of the summits around a point sorts them by
+ * azimuth, so the summits in a field of view are found by a binary search.
+ *
+ * @author Natal Willisch (262092)
+ *
+ */
+public final class SummitIndex {
+
+    /**
+     * Side of the cells of the grid (in radians, about 55 km)
+     */
+    public static final double CELL_SIZE = Math.toRadians(0.5);
+
+    private static final int ROWS = (int) Math.ceil(PI / CELL_SIZE);
+    private static final int COLUMNS = (int) Math.ceil(Math2.PI2 / CELL_SIZE);
+    private static final double SLACK = 1e-9;
+
+    private final SummitTable summits;
+    private final int[] order; // indices of the summits sorted by cell
+    private final int[] cells; // sorted cells that contain summits
+    private final int[] starts; // start of the cells in order (+ end)
+
+    /**
+     * Constructs the index of a list of summits (see
+     * {@link SummitTable#of(List)}).
+     *
+     * @param summits
+     *            the summits
+     * @throws NullPointerException
+     *             if the list is null
+     */
+    public SummitIndex(List<Summit> summits) {
+
+        this(SummitTable.of(summits));
+
+    }
+
+    /**
+     * Constructs the index of a table of summits.
+     *
+     * @param summits
+     *            the summits
+     * @throws NullPointerException
+     *             if the table is null
+     */
+    public SummitIndex(SummitTable summits) {
+
+        this.summits = Objects.requireNonNull(summits, "summits is null");
+
+        int n = summits.size();
+        long[] sorted = new long[n]; // cell in the high bits, then index
+
+        for (int i = 0; i < n; i++)
+            sorted[i] = (long) (row(summits.latitude(i)) * COLUMNS
+                    + column(summits.longitude(i))) << 32 | i;
+        Arrays.sort(sorted);
+
+        order = new int[n];
+        int[] cells = new int[n];
+        int[] starts = new int[n + 1];
+        int count = 0;
+
+        for (int i = 0; i < n; i++) {
+            int cell = (int) (sorted[i] >>> 32);
+
+            order[i] = (int) sorted[i];
+            if (count == 0 || cells[count - 1] != cell) {
+                cells[count] = cell;
+                starts[count++] = i;
+            }
+        }
+        starts[count] = n;
+
+        this.cells = Arrays.copyOf(cells, count);
+        this.starts = Arrays.copyOf(starts, count + 1);
+
+    }
+
+    /**
+     * Returns the indexed summits.
+     *
+     * @return the (unmodifiable) list of the summits
+     */
+    public List<Summit> summits() {
+
+        return summits.asList();
+
+    }
+
+    /**
+     * Returns the table of the indexed summits.
+     *
+     * @return the table
+     */
+    public SummitTable table() {
+
+        return summits;
+
+    }
+
+    /**
+     * Returns the indices (in {@link #summits()}) of the summits whose
+     * distance to a point is at most {@code maxDistance}, in increasing
+     * order.
+     *
+     * @param center
+     *            the point
+     * @param maxDistance
+     *            the maximal distance in meters
+     * @return the indices of the summits
+     * @throws IllegalArgumentException
+     *             if the distance is negative
+     */
+    public int[] within(GeoPoint center, double maxDistance) {
+
+        checkArgument(maxDistance >= 0, "negative distance");
+
+        double radius = Distance.toRadians(maxDistance) + SLACK;
+        double lat = center.latitude();
+        double cosLatitude = Math.cos(lat);
+        int minRow = row(Math.max(-PI / 2, lat - radius));
+        int maxRow = row(Math.min(PI / 2, lat + radius));
+        int[] found = new int[16];
+        int count = 0;
+
+        double ratio = Math.abs(lat) + radius >= PI / 2 ? 2
+                : Math.sin(radius) / Math.cos(lat);
+        double halfWidth = ratio >= 1 ? PI : Math.asin(ratio) + SLACK;
+        int[] ranges = columnRanges(center.longitude() - halfWidth,
+                center.longitude() + halfWidth);
+
+        for (int row = minRow; row <= maxRow; row++) {
+            for (int r = 0; r < ranges.length; r += 2) {
+                int c = firstCell(row * COLUMNS + ranges[r]);
+                int last = row * COLUMNS + ranges[r + 1];
+
+                for (; c < cells.length && cells[c] <= last; c++)
+                    for (int i = starts[c]; i < starts[c + 1]; i++) {
+                        int s = order[i];
+
+                        if (distance(center, cosLatitude,
+                                summits.longitude(s),
+                                summits.latitude(s)) <= maxDistance) {
+                            if (count == found.length)
+                                found = Arrays.copyOf(found, 2 * count);
+                            found[count++] = s;
+                        }
+                    }
+            }
+        }
+
+        found = Arrays.copyOf(found, count);
+        Arrays.sort(found);
+        return found;
+
+    }
+
+    /**
+     * Returns the view of the summits around an observer.
+     *
+     * @param observer
+     *            position of the observer
+     * @param maxDistance
+     *            the maximal distance in meters of the summits
+     * @return the view
+     * @throws IllegalArgumentException
+     *             if the distance is negative
+     */
+    public View view(GeoPoint observer, double maxDistance) {
+
+        return new View(this, observer, within(observer, maxDistance));
+
+    }
+
+    /**
+     * The summits around an observer (at most at a given distance), sorted
+     * by their azimuth seen from the observer.
+     */
+    public static final class View {
+
+        private final SummitTable summits;
+        private final int[] indices;
+        private final double[] azimuths;
+        private final double[] distances;
+
+        private View(SummitIndex index, GeoPoint observer, int[] found) {
+
+            int n = found.length;
+            double[] azimuth = new double[n];
+            int[] sorted = new int[n];
+
+            for (int i = 0; i < n; i++) {
+                azimuth[i] = observer
+                        .azimuthTo(index.summits.position(found[i]));
+                sorted[i] = i;
+            }
+            Sorting.sort(sorted,
+                    (i, j) -> Double.compare(azimuth[i], azimuth[j]));
+
+            summits = index.summits;
+            indices = new int[n];
+            azimuths = new double[n];
+            distances = new double[n];
+            for (int i = 0; i < n; i++) {
+                int s = found[sorted[i]];
+
+                indices[i] = s;
+                azimuths[i] = azimuth[sorted[i]];
+                distances[i] = observer.distanceTo(summits.position(s));
+            }
+
+        }
+
+        /**
+         * Returns the number of summits in the view.
+         *
+         * @return number of summits
+         */
+        public int size() {
+
+            return indices.length;
+
+        }
+
+        /**
+         * Returns a summit of the view.
+         *
+         * @param i
+         *            position of the summit in the view (by azimuth)
+         * @return the summit
+         */
+        public Summit summit(int i) {
+
+            return summits.summit(indices[i]);
+
+        }
+
+        /**
+         * Returns the name of a summit of the view.
+         *
+         * @param i
+         *            position of the summit in the view
+         * @return the name
+         */
+        public String name(int i) {
+
+            return summits.name(indices[i]);
+
+        }
+
+        /**
+         * Returns the elevation of a summit of the view.
+         *
+         * @param i
+         *            position of the summit in the view
+         * @return the elevation in meters
+         */
+        public int elevation(int i) {
+
+            return summits.elevation(indices[i]);
+
+        }
+
+        /**
+         * Returns the index of a summit of the view in the list of the
+         * summits of the index.
+         *
+         * @param i
+         *            position of the summit in the view
+         * @return the index of the summit
+         */
+        public int index(int i) {
+
+            return indices[i];
+
+        }
+
+        /**
+         * Returns the azimuth of a summit of the view, seen from the
+         * observer.
+         *
+         * @param i
+         *            position of the summit in the view
+         * @return the azimuth
+         */
+        public double azimuth(int i) {
+
+            return azimuths[i];
+
+        }
+
+        /**
+         * Returns the distance in meters from the observer to a summit of the
+         * view.
+         *
+         * @param i
+         *            position of the summit in the view
+         * @return the distance
+         */
+        public double distance(int i) {
+
+            return distances[i];
+
+        }
+
+        /**
+         * Returns the positions in the view of the summits whose azimuth is
+         * at most at {@code horizontalFieldOfView / 2} from the center
+         * azimuth (ordered by azimuth from the left border of the field).
+         *
+         * @param centerAzimuth
+         *            the center of the field of view
+         * @param horizontalFieldOfView
+         *            the angle of the field of view
+         * @return the positions of the summits in the view
+         * @throws IllegalArgumentException
+         *             if the azimuth is not canonical
+         */
+        public int[] inFieldOfView(double centerAzimuth,
+                double horizontalFieldOfView) {
+
+            checkArgument(Azimuth.isCanonical(centerAzimuth),
+                    "azimuth is not canonical");
+
+            int n = indices.length;
+            double half = horizontalFieldOfView / 2;
+            int start, count;
+
+            if (half + SLACK >= PI) {
+                start = first(Azimuth.canonicalize(centerAzimuth - PI));
+                count = n;
+            } else {
+                double from = Azimuth
+                        .canonicalize(centerAzimuth - half - SLACK);
+                double to = Azimuth.canonicalize(centerAzimuth + half + SLACK);
+                int end = first(to);
+
+                start = first(from);
+                count = from <= to ? end - start : n - start + end;
+            }
+
+            int[] r = new int[count];
+            int k = 0;
+
+            for (int j = 0; j < count; j++) {
+                int i = (start + j) % n;
+
+                if (Math.abs(Math2.angularDistance(azimuths[i],
+                        centerAzimuth)) <= half)
+                    r[k++] = i;
+            }
+
+            return Arrays.copyOf(r, k);
+
+        }
+
+        /**
+         * Returns the position of the first summit whose azimuth is at least
+         * the given one (or the size of the view).
+         */
+        private int first(double azimuth) {
+
+            int low = 0, high = azimuths.length;
+
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+
+                if (azimuths[mid] < azimuth)
+                    low = mid + 1;
+                else
+                    high = mid;
+            }
+
+            return low;
+
+        }
+
+    }
+
+    // private functions
+
+    private static int row(double latitude) {
+
+        return Math.max(0,
+                Math.min(ROWS - 1, (int) ((latitude + PI / 2) / CELL_SIZE)));
+
+    }
+
+    private static int column(double longitude) {
+
+        return Math.max(0,
+                Math.min(COLUMNS - 1, (int) ((longitude + PI) / CELL_SIZE)));
+
+    }
+
+    /**
+     * Returns the distance in meters from a point to a summit given by its
+     * longitude and its latitude (the same as {@link GeoPoint#distanceTo},
+     * without creating the point of the summit).
+     */
+    private static double distance(GeoPoint center, double cosLatitude,
+            double longitude, double latitude) {
+
+        return Distance.toMeters(2 * Math.asin(Math.sqrt(
+                Math2.haversin(center.latitude() - latitude) + cosLatitude
+                        * Math.cos(latitude)
+                        * Math2.haversin(center.longitude() - longitude))));
+
+    }
+
+    /**
+     * Returns the intervals of columns (first and last column of each) that
+     * contain an interval of longitudes, which is split in two on the
+     * antimeridian.
+     */
+    private static int[] columnRanges(double minLongitude,
+            double maxLongitude) {
+
+        if (maxLongitude - minLongitude >= Math2.PI2)
+            return new int[] { 0, COLUMNS - 1 };
+        if (minLongitude < -PI)
+            return new int[] { 0, column(maxLongitude),
+                    column(minLongitude + Math2.PI2), COLUMNS - 1 };
+        if (maxLongitude > PI)
+            return new int[] { column(minLongitude), COLUMNS - 1, 0,
+                    column(maxLongitude - Math2.PI2) };
+        return new int[] { column(minLongitude), column(maxLongitude) };
+
+    }
+
+    /**
+     * Returns the position of the first cell that is at least the given one.
+     */
+    private int firstCell(int cell) {
+
+        int i = Arrays.binarySearch(cells, cell);
+
+        return i >= 0 ? i : -i - 1;
+
+    }
+
+}
@@ -0,0 +1,237 @@
+package ch.epfl.alpano.summit;
+
+import static ch.epfl.alpano.Preconditions.checkArgument;
+import static java.lang.Math.PI;
+
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
+import java.util.List;
+import java.util.Objects;
+import java.util.RandomAccess;
+
+import ch.epfl.alpano.GeoPoint;
+
+/**
+ * A list of summits stored by columns: tables of the longitudes, latitudes
+ * and elevations of the summits, and one table of the bytes of all names
+ * (UTF-8) with the offsets of the names in it. A table does not hold any
+ * object per summit; the summits and their names are only created when they
+ * are accessed.
+ *
+ * @author Natal Willisch (262092)
+ *
+ */
+public final class SummitTable {
+
+    private final double[] longitudes;
+    private final double[] latitudes;
+    private final int[] elevations;
+    private final int[] nameOffsets; // start of every name (+ end)
+    private final byte[] names;
+    private final List<Summit> list = new ListView();
+
+    /**
+     * Constructs a table from its columns (which are not copied).
+     *
+     * @throws IllegalArgumentException
+     *             if the columns do not have the same size, a position is out
+     *             of range or the offsets of the names are not valid
+     */
+    SummitTable(double[] longitudes, double[] latitudes, int[] elevations,
+            int[] nameOffsets, byte[] names) {
+
+        int n = longitudes.length;
+
+        checkArgument(latitudes.length == n && elevations.length == n
+                && nameOffsets.length == n + 1, "columns of different sizes");
+        checkArgument(nameOffsets[0] == 0 && nameOffsets[n] == names.length,
+                "invalid table of names");
+        for (int i = 0; i < n; i++) {
+            checkArgument(nameOffsets[i] <= nameOffsets[i + 1],
+                    "invalid table of names");
+            checkArgument(Math.abs(longitudes[i]) <= PI
+                    && Math.abs(latitudes[i]) <= PI / 2,
+                    "position out of range");
+        }
+
+        this.longitudes = longitudes;
+        this.latitudes = latitudes;
+        this.elevations = elevations;
+        this.nameOffsets = nameOffsets;
+        this.names = names;
+
+    }
+
+    /**
+     * Returns the table of a list of summits. The table of a list returned by
+     * {@link #asList()} is the table itself.
+     *
+     * @param summits
+     *            the summits
+     * @return the table
+     * @throws NullPointerException
+     *             if the list or one of its summits is null
+     */
+    public static SummitTable of(List<Summit> summits) {
+
+        Objects.requireNonNull(summits, "summits is null");
+
+        if (summits instanceof SummitTable.ListView)
+            return ((SummitTable.ListView) summits).table();
+
+        int n = summits.size();
+        double[] longitudes = new double[n];
+        double[] latitudes = new double[n];
+        int[] elevations = new int[n];
+        int[] nameOffsets = new int[n + 1];
+        byte[][] names = new byte[n][];
+
+        for (int i = 0; i < n; i++) {
+            Summit s = summits.get(i);
+
+            longitudes[i] = s.position().longitude();
+            latitudes[i] = s.position().latitude();
+            elevations[i] = s.elevation();
+            names[i] = s.name().getBytes(StandardCharsets.UTF_8);
+            nameOffsets[i + 1] = nameOffsets[i] + names[i].length;
+        }
+
+        byte[] allNames = new byte[nameOffsets[n]];
+        for (int i = 0; i < n; i++)
+            System.arraycopy(names[i], 0, allNames, nameOffsets[i],
+                    names[i].length);
+
+        return new SummitTable(longitudes, latitudes, elevations, nameOffsets,
+                allNames);
+
+    }
+
+    /**
+     * Returns the number of summits.
+     *
+     * @return number of summits
+     */
+    public int size() {
+
+        return elevations.length;
+
+    }
+
+    /**
+     * Returns the longitude of a summit.
+     *
+     * @param i
+     *            index of the summit
+     * @return the longitude in radians
+     */
+    public double longitude(int i) {
+
+        return longitudes[i];
+
+    }
+
+    /**
+     * Returns the latitude of a summit.
+     *
+     * @param i
+     *            index of the summit
+     * @return the latitude in radians
+     */
+    public double latitude(int i) {
+
+        return latitudes[i];
+
+    }
+
+    /**
+     * Returns the elevation of a summit.
+     *
+     * @param i
+     *            index of the summit
+     * @return the elevation in meters
+     */
+    public int elevation(int i) {
+
+        return elevations[i];
+
+    }
+
+    /**
+     * Returns the name of a summit (a new string at every call).
+     *
+     * @param i
+     *            index of the summit
+     * @return the name
+     */
+    public String name(int i) {
+
+        return new String(names, nameOffsets[i],
+                nameOffsets[i + 1] - nameOffsets[i], StandardCharsets.UTF_8);
+
+    }
+
+    /**
+     * Returns the position of a summit (a new point at every call).
+     *
+     * @param i
+     *            index of the summit
+     * @return the position
+     */
+    public GeoPoint position(int i) {
+
+        return new GeoPoint(longitudes[i], latitudes[i]);
+
+    }
+
+    /**
+     * Returns a summit of the table (a new summit at every call).
+     *
+     * @param i
+     *            index of the summit
+     * @return the summit
+     */
+    public Summit summit(int i) {
+
+        return new Summit(name(i), position(i), elevations[i]);
+
+    }
+
+    /**
+     * Returns an unmodifiable view of the table as a list of summits. The
+     * summits of the list are created when they are accessed, so the list
+     * returns a different (but equal in content) summit at every access.
+     *
+     * @return the list of the summits
+     */
+    public List<Summit> asList() {
+
+        return list;
+
+    }
+
+    private final class ListView extends AbstractList<Summit>
+            implements RandomAccess {
+
+        @Override
+        public Summit get(int index) {
+
+            return summit(index);
+
+        }
+
+        @Override
+        public int size() {
+
+            return SummitTable.this.size();
+
+        }
+
+        SummitTable table() {
+
+            return SummitTable.this;
+
+        }
+
+    }
+
+}